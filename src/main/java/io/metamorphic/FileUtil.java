@@ -1,5 +1,7 @@
 package io.metamorphic;
 
+import io.metamorphic.fileservices.BatchExtractor;
+import io.metamorphic.fileservices.ExtractionOptions;
 import io.metamorphic.fileservices.FileService;
 import io.metamorphic.fileservices.FileServiceImpl;
 import io.metamorphic.models.DatasetInfo;
@@ -7,6 +9,9 @@ import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Properties;
 
 public class FileUtil {
@@ -21,7 +26,6 @@ public class FileUtil {
             log.debug("arg2 - input file: " + args[2]);
             log.debug("arg3 - gen: " + args[3]);
             String gen = args[3].toLowerCase();
-            String data = FileServiceImpl.readFileAsString(new File(args[2]));
             Properties props = new Properties();
             try {
                 InputStream propsFile = FileUtil.class.getResourceAsStream("/.env");
@@ -33,22 +37,42 @@ public class FileUtil {
                 System.out.println("Error loading properties. Is the '.env' file in the right format?");
                 System.exit(1);
             }
-            String br = new String(new char[80]).replace("\0", "-");
-            System.out.println(br);
-            System.out.print(data);
-            System.out.println(br);
-            DatasetInfo info = svc.extractMetadata(args[0], args[1], data);
-            if ("curate".equals(gen)) {
-                System.out.println(info.toCurationProperties(props));
-            } else if ("ingest".equals(gen)) {
-                System.out.println(info.toIngestionProperties(props));
-            } else if ("file".equals(gen)) {
-                System.out.println(info.toFileProperties());
+            Path path = Paths.get(args[2]);
+            if (Files.isDirectory(path)) {
+                // extract every file in the directory matching the glob (default all);
+                // the dataset name is taken from each file name
+                String glob = args.length > 4 ? args[4] : "*";
+                BatchExtractor extractor = new BatchExtractor(svc, new ExtractionOptions());
+                int failed = extractor.extract(args[0], path, glob, result -> {
+                    if (result.isSuccess()) {
+                        System.err.println(result.getPath() + " " + result.getElapsedMillis() + "ms");
+                        print(result.getDatasetInfo(), gen, props);
+                    } else {
+                        System.err.println(result.getPath() + " FAILED " + result.getElapsedMillis() + "ms: " +
+                                result.getError().getMessage());
+                    }
+                });
+                if (failed > 0) {
+                    System.exit(2);
+                }
             } else {
-                System.out.print(info.toDDL());
+                DatasetInfo info = svc.extractMetadata(args[0], args[1], path, new ExtractionOptions());
+                print(info, gen, props);
             }
         } catch (Exception e) {
             e.printStackTrace();
         }
     }
+
+    private static void print(DatasetInfo info, String gen, Properties props) {
+        if ("curate".equals(gen)) {
+            System.out.println(info.toCurationProperties(props));
+        } else if ("ingest".equals(gen)) {
+            System.out.println(info.toIngestionProperties(props));
+        } else if ("file".equals(gen)) {
+            System.out.println(info.toFileProperties());
+        } else {
+            System.out.print(info.toDDL());
+        }
+    }
 }
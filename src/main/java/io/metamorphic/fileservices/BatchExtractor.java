@@ -0,0 +1,139 @@
+package io.metamorphic.fileservices;
+
+import io.metamorphic.models.DatasetInfo;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+/**
+ * Extracts metadata from every file in a directory matching a glob, using
+ * a fixed pool of worker threads which share one FileService.
+ *
+ * The directory is listed lazily, and at most two files per thread are in
+ * flight at a time, so a directory of any size is crawled in bounded memory.
+ * Results are handed to the consumer on the calling thread as each file
+ * completes, so the consumer need not be thread-safe. A file that fails
+ * is reported as a failed ExtractionResult, and does not stop the batch.
+ *
+ * Each file's dataset name is its file name without the extension, in
+ * underscore format.
+ */
+public class BatchExtractor {
+
+    private static final Logger log = LogManager.getLogger(BatchExtractor.class);
+
+    private final FileService fileService;
+    private final ExtractionOptions options;
+    private final int numThreads;
+
+    /**
+     * @param fileService (FileService) shared by all workers, so must be thread-safe
+     * @param options (ExtractionOptions) applied to each file
+     * @param numThreads (int) number of worker threads
+     */
+    public BatchExtractor(FileService fileService, ExtractionOptions options, int numThreads) {
+        this.fileService = fileService;
+        this.options = options;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    public BatchExtractor(FileService fileService, ExtractionOptions options) {
+        this(fileService, options, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param dataSourceName (String)
+     * @param dir (Path) directory to crawl (not recursively)
+     * @param glob (String) file name pattern, e.g. "*.csv"
+     * @param consumer (Consumer) receives each result as it completes
+     * @return (int) number of files that failed
+     */
+    public int extract(String dataSourceName, Path dir, String glob, Consumer<ExtractionResult> consumer)
+            throws IOException, InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        CompletionService<ExtractionResult> completionService = new ExecutorCompletionService<>(executor);
+        int maxInFlight = numThreads * 2;
+        int inFlight = 0;
+        int failed = 0;
+        try {
+            DirectoryStream<Path> stream = Files.newDirectoryStream(dir, glob);
+            try {
+                for (Path path : stream) {
+                    if (!Files.isRegularFile(path)) continue;
+                    if (inFlight == maxInFlight) {
+                        failed += deliver(completionService, consumer);
+                        inFlight -= 1;
+                    }
+                    completionService.submit(() -> extract(dataSourceName, path));
+                    inFlight += 1;
+                }
+            } finally {
+                stream.close();
+            }
+            while (inFlight > 0) {
+                failed += deliver(completionService, consumer);
+                inFlight -= 1;
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return failed;
+    }
+
+    private ExtractionResult extract(String dataSourceName, Path path) {
+        String datasetName = getDatasetName(path);
+        long start = System.nanoTime();
+        DatasetInfo info = null;
+        Exception error = null;
+        try {
+            info = fileService.extractMetadata(dataSourceName, datasetName, path, options);
+        } catch (Exception e) {
+            error = e;
+        }
+        long elapsed = (System.nanoTime() - start) / 1000000;
+        if (log.isDebugEnabled()) {
+            log.debug(path + " " + (error == null ? "done" : "failed") + " in " + elapsed + "ms");
+        }
+        return new ExtractionResult(path, datasetName, info, error, elapsed);
+    }
+
+    /**
+     * Waits for the next result and hands it to the consumer.
+     *
+     * @return (int) 1 if the file failed, otherwise 0
+     */
+    private static int deliver(CompletionService<ExtractionResult> completionService,
+                               Consumer<ExtractionResult> consumer) throws InterruptedException {
+        ExtractionResult result;
+        try {
+            result = completionService.take().get();
+        } catch (ExecutionException e) {
+            // extract catches everything but errors
+            throw new IllegalStateException(e.getCause());
+        }
+        if (!result.isSuccess()) {
+            log.warn("Error extracting metadata from " + result.getPath() + ": " + result.getError().getMessage());
+        }
+        consumer.accept(result);
+        return result.isSuccess() ? 0 : 1;
+    }
+
+    private static String getDatasetName(Path path) {
+        String name = path.getFileName().toString();
+        int dot = name.indexOf('.');
+        if (dot > 0) {
+            name = name.substring(0, dot);
+        }
+        return Naming.underscoreFormat(name);
+    }
+}
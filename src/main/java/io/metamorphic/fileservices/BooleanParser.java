@@ -23,4 +23,19 @@ public class BooleanParser implements ITypeParser<Boolean> {
         }
         return null;
     }
+
+    /**
+     * Tests whether value[start, end) is a boolean word, ignoring case,
+     * without allocating.
+     */
+    static boolean isBoolean(String value, int start, int end) {
+        int len = end - start;
+        for (String word : affirmatives) {
+            if (word.length() == len && value.regionMatches(true, start, word, 0, len)) return true;
+        }
+        for (String word : negatives) {
+            if (word.length() == len && value.regionMatches(true, start, word, 0, len)) return true;
+        }
+        return false;
+    }
 }
@@ -0,0 +1,281 @@
+package io.metamorphic.fileservices;
+
+import au.com.bytecode.opencsv.CSVWriter;
+import com.github.javafaker.Faker;
+import com.moilioncircle.ddl.parser.ColumnElement;
+import com.moilioncircle.ddl.parser.MysqlDDLParser;
+import com.moilioncircle.ddl.parser.TableElement;
+import com.moilioncircle.ddl.parser.utils.ISymbol;
+import io.metamorphic.models.ColumnInfo;
+import io.metamorphic.models.DatasetInfo;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generates test data for every table in a DDL file, or resembling an
+ * inferred dataset, in parallel.
+ *
+ * The rows of each table are split into partitions, each written to its
+ * own file, dir/&lt;table&gt;/part-00000.csv and so on, by a fixed pool of
+ * worker threads. Each partition draws from its own Faker, seeded from
+ * the generator's seed and the partition's table and number, so the
+ * output is the same byte for byte whatever the number of threads, or
+ * the order in which partitions run.
+ */
+public class DataGenerator {
+
+    private static final Logger log = LogManager.getLogger(DataGenerator.class);
+
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    private final int numThreads;
+    private final long seed;
+
+    /**
+     * @param numThreads (int) number of worker threads
+     * @param seed (long) makes the output repeatable
+     */
+    public DataGenerator(int numThreads, long seed) {
+        this.numThreads = Math.max(1, numThreads);
+        this.seed = seed;
+    }
+
+    public DataGenerator(long seed) {
+        this(Runtime.getRuntime().availableProcessors(), seed);
+    }
+
+    /**
+     * @param ddl (String) one or more CREATE TABLE statements
+     * @param numRows (long) number of rows per table, not counting headers
+     * @param numPartitions (int) number of files per table
+     * @param dir (Path) output directory
+     * @param gzip (boolean) compress the output files
+     * @return (List) files written, by table then partition
+     */
+    public List<Path> generate(String ddl, long numRows, int numPartitions, Path dir, boolean gzip)
+            throws IOException, InterruptedException {
+        List<TableElement> tables = new MysqlDDLParser().parse(ddl);
+        List<Table> outputs = new ArrayList<>();
+        for (TableElement table : tables) {
+            outputs.add(toTable(table));
+        }
+        return generate(outputs, numRows, numPartitions, dir, gzip);
+    }
+
+    /**
+     * Generates rows resembling the sample a dataset was inferred from,
+     * using the profile of each column (see ValueGenerators.forProfile),
+     * with the same delimiter, and a header if the sample had one.
+     *
+     * Only delimited datasets carry profiles. The columns of any other
+     * dataset, e.g. JSON, are generated from their SQL types and names,
+     * as for a DDL.
+     *
+     * @param datasetInfo (DatasetInfo) as returned by extractMetadata; must be named
+     * @param numRows (long) number of rows, not counting headers
+     * @param numPartitions (int) number of files
+     * @param dir (Path) output directory; files go in dir/&lt;dataset name&gt;
+     * @param gzip (boolean) compress the output files
+     * @return (List) files written, by partition
+     */
+    public List<Path> generate(DatasetInfo datasetInfo, long numRows, int numPartitions, Path dir, boolean gzip)
+            throws IOException, InterruptedException {
+        if (datasetInfo.getName() == null) {
+            throw new IllegalArgumentException("The dataset must be named");
+        }
+        List<ColumnInfo> columns = datasetInfo.getColumns();
+        int numCols = columns.size();
+        FileParameters fileParameters = datasetInfo.getFileParameters();
+        String[] header = null;
+        if (fileParameters != null && fileParameters.hasHeader()) {
+            header = new String[numCols];
+        }
+        IValueGenerator[] generators = new IValueGenerator[numCols];
+        for (int j = 0; j < numCols; j++) {
+            ColumnInfo column = columns.get(j);
+            if (header != null) {
+                header[j] = column.getName();
+            }
+            // seeded apart from any partition (table -1), so that every
+            // partition draws from the same values of a repeating column
+            generators[j] = ValueGenerators.forProfile(column, partitionSeed(seed, -1, j));
+        }
+
+        // a multi-character or absent delimiter (fixed width) falls back to a comma
+        char separator = CSVWriter.DEFAULT_SEPARATOR;
+        if (fileParameters != null && fileParameters.getColumnDelimiter() != null &&
+                fileParameters.getColumnDelimiter().length() == 1) {
+            separator = fileParameters.getColumnDelimiter().charAt(0);
+        }
+        Table table = new Table(datasetInfo.getName(), header, generators, separator);
+        return generate(Collections.singletonList(table), numRows, numPartitions, dir, gzip);
+    }
+
+    private List<Path> generate(List<Table> tables, long numRows, int numPartitions, Path dir, boolean gzip)
+            throws IOException, InterruptedException {
+        int partitions = Math.max(1, numPartitions);
+        String extension = gzip ? ".csv.gz" : ".csv";
+        ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+        try {
+            List<Path> paths = new ArrayList<>();
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < tables.size(); t++) {
+                Table table = tables.get(t);
+                Path tableDir = dir.resolve(table.name);
+                Files.createDirectories(tableDir);
+                for (int p = 0; p < partitions; p++) {
+                    long rows = numRows * (p + 1) / partitions - numRows * p / partitions;
+                    long partitionSeed = partitionSeed(seed, t, p);
+                    Path path = tableDir.resolve(String.format("part-%05d%s", p, extension));
+                    paths.add(path);
+                    futures.add(executor.submit(() -> {
+                        writeRows(table.header, table.generators, table.separator,
+                                new Faker(new Random(partitionSeed)), rows, path, gzip);
+                        return null;
+                    }));
+                }
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("wrote " + paths.size() + " files for " + tables.size() + " tables");
+            }
+            return paths;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Writes a header, then numRows generated rows, for a table in a DDL.
+     *
+     * @param table (TableElement)
+     * @param faker (Faker) source of all randomness
+     * @param numRows (long)
+     * @param path (Path) output file
+     * @param gzip (boolean) compress the output
+     */
+    static void writeRows(TableElement table, Faker faker, long numRows, Path path, boolean gzip)
+            throws IOException {
+        Table t = toTable(table);
+        writeRows(t.header, t.generators, t.separator, faker, numRows, path, gzip);
+    }
+
+    /**
+     * Writes a header, then numRows generated rows, each as it is
+     * produced, so memory use does not depend on numRows.
+     *
+     * @param header (String[]) column names, or null for no header
+     * @param generators (IValueGenerator[]) one per column
+     * @param separator (char) column delimiter
+     * @param faker (Faker) source of all randomness
+     * @param numRows (long)
+     * @param path (Path) output file
+     * @param gzip (boolean) compress the output
+     */
+    static void writeRows(String[] header, IValueGenerator[] generators, char separator, Faker faker,
+                          long numRows, Path path, boolean gzip) throws IOException {
+        int numCols = generators.length;
+        OutputStream out = Files.newOutputStream(path);
+        if (gzip) {
+            out = new GZIPOutputStream(out, WRITE_BUFFER_SIZE);
+        }
+        CSVWriter writer = new CSVWriter(new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8), WRITE_BUFFER_SIZE),
+                separator);
+        try {
+            if (header != null) {
+                writer.writeNext(header);
+            }
+
+            // the writer is done with a row once writeNext returns
+            String[] row = new String[numCols];
+            for (long i = 0; i < numRows; i++) {
+                for (int j = 0; j < numCols; j++) {
+                    row[j] = generators[j].generate(faker);
+                }
+                writer.writeNext(row);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static Table toTable(TableElement table) {
+        List<ColumnElement> columns = table.getColumns();
+        int numCols = columns.size();
+        String[] header = new String[numCols];
+        IValueGenerator[] generators = new IValueGenerator[numCols];
+        for (int j = 0; j < numCols; j++) {
+            ColumnElement column = columns.get(j);
+            header[j] = getSymbolName(column.getColumnName()).toLowerCase();
+            generators[j] = ValueGenerators.forColumn(header[j], column.getType().name());
+        }
+        return new Table(getSymbolName(table.getTableName()), header, generators, CSVWriter.DEFAULT_SEPARATOR);
+    }
+
+    /**
+     * @param symbol (ISymbol) table or column name from the DDL parser
+     * @return (String) the name, without any identifier quotes
+     */
+    static String getSymbolName(ISymbol symbol) {
+        String name = String.valueOf(symbol.getValue());
+        if (name.length() > 1 && name.charAt(0) == '`' && name.charAt(name.length() - 1) == '`') {
+            name = name.substring(1, name.length() - 1);
+        }
+        return name;
+    }
+
+    /**
+     * Mixes the seed with a partition's position (as in SplitMix64), so
+     * that neighbouring partitions get unrelated random sequences.
+     */
+    private static long partitionSeed(long seed, int table, int partition) {
+        long z = seed + 0x9E3779B97F4A7C15L * ((((long) table) << 32) + partition + 1);
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    /**
+     * What to write for a table: its name, header and a generator per
+     * column.
+     */
+    private static class Table {
+
+        final String name;
+        final String[] header;
+        final IValueGenerator[] generators;
+        final char separator;
+
+        Table(String name, String[] header, IValueGenerator[] generators, char separator) {
+            this.name = name;
+            this.header = header;
+            this.generators = generators;
+            this.separator = separator;
+        }
+    }
+}
@@ -9,5 +9,7 @@ public enum DataTypes {
     NUMERIC,
     INTEGER,
     TIMESTAMP,
-    BOOLEAN
+    BOOLEAN,
+    STRUCT,
+    ARRAY
 }
@@ -3,15 +3,43 @@ package io.metamorphic.fileservices;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
-import java.text.DateFormat;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
+import java.text.ParsePosition;
+import java.time.DateTimeException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeFormatterBuilder;
+import java.time.temporal.ChronoField;
+import java.time.temporal.TemporalAccessor;
+import java.time.temporal.TemporalQueries;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
+ * Each format is compiled once into an immutable DateTimeFormatter, so a
+ * DateParser may be shared between threads.
+ *
+ * Formats are indexed by the shape of the values they produce, e.g.
+ * "9/9/9 9:9" for "dd/MM/yy HH:mm", where a run of digits is '9' and a run
+ * of letters is 'a'. A value is only tried against the formats with the same
+ * shape, so most values that are not dates are rejected with a single lookup,
+ * and no exception is thrown for a format that does not match.
+ *
+ * A value must match the whole format. Field widths are lenient, as they
+ * were with SimpleDateFormat, so "1/2/09" matches "dd/MM/yy".
+ *
+ * Where several formats of a shape match a value (01/02/2015), the one that
+ * matched most recently is preferred, using FormatStats kept per column
+ * by the caller, or otherwise per thread.
+ *
  * Created by markmo on 4/07/2015.
  */
 public class DateParser implements ITypeParser<ParsedDate> {
@@ -45,6 +73,8 @@ public class DateParser implements ITypeParser<ParsedDate> {
             "MM.dd.yy",                     // 07.04.01
             "MM-dd-yy",                     // 07-04-01
             "MM/dd/yy",                     // 07/04/01
+            "dd/MM/yy HH:mm",               // 04/07/01 12:08
+            "MM/dd/yy HH:mm",               // 07/04/01 12:08
             "dd/MMM/yy",                    // 03/APR/15
             "yyyy-MM-dd",
             "yyyy-MM-dd'T'HH",
@@ -59,55 +89,305 @@ public class DateParser implements ITypeParser<ParsedDate> {
             "yyyy-MM-dd HH:mm:ss Z"
     };
 
-    private List<String> dfList;
+    // formatted with each format to find the shapes it produces; the UTC
+    // sample covers 'Z' and '+0000' offsets
+    private static final ZonedDateTime[] samples = new ZonedDateTime[] {
+            ZonedDateTime.of(2001, 7, 4, 12, 8, 56, 235000000, ZoneId.of("America/Los_Angeles")),
+            ZonedDateTime.of(2001, 7, 4, 12, 8, 56, 235000000, ZoneOffset.UTC)
+    };
+
+    // distinct formats; a format's id is its index
+    private final CompiledFormat[] formats;
+
+    // ids of the formats of each shape, in declaration order
+    private final Map<String, int[]> index;
+
+    // ids of formats which could not be indexed, tried for every value
+    private final int[] unindexed;
+
+    // used when no column statistics are given
+    private final ThreadLocal<FormatStats> threadStats = ThreadLocal.withInitial(this::newStats);
 
     public DateParser() {
-        this.dfList = Arrays.asList(dateFormats);
+        this(dateFormats);
     }
 
     public DateParser(String[] dateFormats) {
-        this.dfList = Arrays.asList(dateFormats);
+        List<CompiledFormat> compiled = new ArrayList<>();
+        Map<String, List<Integer>> shapes = new LinkedHashMap<>();
+        List<Integer> other = new ArrayList<>();
+        for (String format : dateFormats) {
+            if (indexOf(compiled, format) != -1) continue;
+            CompiledFormat cf = compile(format);
+            if (cf == null) continue;
+            int id = compiled.size();
+            compiled.add(cf);
+            boolean indexed = false;
+            for (ZonedDateTime sample : samples) {
+                String shape;
+                try {
+                    shape = shape(cf.formatter.format(sample));
+                } catch (DateTimeException e) {
+                    continue;
+                }
+                List<Integer> ids = shapes.computeIfAbsent(shape, k -> new ArrayList<>());
+                if (!ids.contains(id)) {
+                    ids.add(id);
+                }
+                indexed = true;
+            }
+            if (!indexed) {
+                other.add(id);
+            }
+        }
+        Map<String, int[]> index = new HashMap<>();
+        for (Map.Entry<String, List<Integer>> entry : shapes.entrySet()) {
+            index.put(entry.getKey(), toArray(entry.getValue()));
+        }
+        this.formats = compiled.toArray(new CompiledFormat[compiled.size()]);
+        this.index = index;
+        this.unindexed = toArray(other);
+    }
+
+    /**
+     * @return (FormatStats) empty statistics, e.g. for a column
+     */
+    public FormatStats newStats() {
+        return new FormatStats(formats.length);
     }
 
+    /**
+     * Uses statistics kept for the calling thread.
+     */
     @Override
     public ParsedDate parse(String value) {
+        return parse(value, threadStats.get());
+    }
+
+    /**
+     * The format that most recently matched a value with these statistics
+     * is tried first, then the others in declaration order. Statistics
+     * should be kept per column, so that e.g. a column of dd/MM dates and a
+     * column of MM/dd dates don't undo each other's ordering, and must not be
+     * shared between threads.
+     *
+     * @param value (String)
+     * @param stats (FormatStats) or null to use the statistics for the calling thread
+     * @return (ParsedDate) or null if the value is not a date in a known format
+     */
+    public ParsedDate parse(String value, FormatStats stats) {
         if (value == null) return null;
         String v = value.trim();
         if (v.isEmpty()) return null;
-        int i = 0;
-        for (String format : dfList) {
-            try {
-                DateFormat df = new SimpleDateFormat(format);
-                Date dt = df.parse(v);
-
-                // Move valid format to top of list
-                if (i > 0) {
-                    dfList = rearrange(dfList, format);
+        if (stats == null) {
+            stats = threadStats.get();
+        }
+        int[] ids = index.get(shape(v));
+        if (ids != null) {
+            int preferred = stats.preferred(ids);
+            if (preferred != -1) {
+                ParsedDate dt = tryFormat(v, preferred, stats);
+                if (dt != null) return dt;
+            }
+            for (int id : ids) {
+                if (id != preferred) {
+                    ParsedDate dt = tryFormat(v, id, stats);
+                    if (dt != null) return dt;
                 }
+            }
+        }
+        for (int id : unindexed) {
+            ParsedDate dt = tryFormat(v, id, stats);
+            if (dt != null) return dt;
+        }
+        return null;
+    }
 
-                return new ParsedDate(dt, format);
+    private ParsedDate tryFormat(String value, int id, FormatStats stats) {
+        Date dt = formats[id].parse(value);
+        if (dt == null) return null;
+        stats.hit(id);
+        return new ParsedDate(dt, formats[id].format);
+    }
 
-            } catch (ParseException e) {
-                // ignore
-            } catch (IllegalArgumentException e) {
-                log.warn("Invalid format: '" + format + "'; " + e.getMessage(), e);
+    /**
+     * Reduces a value to its shape: each run of digits becomes '9', each
+     * run of letters becomes 'a', and other characters are kept, except
+     * that '+' is folded into '-' so that the sign of an offset is ignored.
+     *
+     * @param value (String)
+     * @return (String) shape
+     */
+    static String shape(String value) {
+        int n = value.length();
+        char[] chars = new char[n];
+        int k = 0;
+        char last = 0;
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            char s;
+            if (c >= '0' && c <= '9') {
+                s = '9';
+            } else if (Character.isLetter(c)) {
+                s = 'a';
+            } else if (c == '+') {
+                s = '-';
+            } else {
+                s = c;
+            }
+            if (k == 0 || s != last || (s != '9' && s != 'a')) {
+                chars[k++] = s;
+                last = s;
             }
-            i += 1;
         }
-        return null;
+        return new String(chars, 0, k);
     }
 
-    private static <T> List<T> rearrange(List<T> items, T input) {
-        int index = items.indexOf(input);
-        List<T> copy;
-        if (index >= 0) {
-            copy = new ArrayList<T>(items.size());
-            copy.addAll(items.subList(0, index));
-            copy.add(0, items.get(index));
-            copy.addAll(items.subList(index + 1, items.size()));
-        } else {
-            copy = new ArrayList<T>(items);
+    private static CompiledFormat compile(String format) {
+        try {
+            return new CompiledFormat(format, getParser(format));
+        } catch (IllegalArgumentException e) {
+            log.warn("Invalid format: '" + format + "'; " + e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /**
+     * @param format (String) a date format, as listed in date_formats.txt
+     * @return (DateTimeFormatter) a formatter that writes dates in the format
+     */
+    static DateTimeFormatter getFormatter(String format) {
+        return DateTimeFormatter.ofPattern(toDateTimePattern(format));
+    }
+
+    /**
+     * @param format (String) a date format, as listed in date_formats.txt
+     * @return (DateTimeFormatter) a formatter that reads dates in the format
+     *         as parse does, for use with parse(DateTimeFormatter, String)
+     */
+    static DateTimeFormatter getParser(String format) {
+        return new DateTimeFormatterBuilder()
+                .parseCaseInsensitive()
+                .parseLenient()
+                .appendPattern(toDateTimePattern(format))
+                .toFormatter();
+    }
+
+    /**
+     * @param parser (DateTimeFormatter) as returned by getParser
+     * @param value (String)
+     * @return (Date) or null if the whole value is not a valid date in the
+     *         parser's format
+     */
+    static Date parse(DateTimeFormatter parser, String value) {
+        ParsePosition pos = new ParsePosition(0);
+        if (parser.parseUnresolved(value, pos) == null || pos.getIndex() != value.length()) {
+            return null;
+        }
+        try {
+            // resolve fields, e.g. reject a month of 13
+            return toDate(parser.parse(value));
+        } catch (DateTimeException e) {
+            return null;
+        }
+    }
+
+    private static Date toDate(TemporalAccessor parsed) {
+        if (parsed.isSupported(ChronoField.INSTANT_SECONDS)) {
+            return Date.from(Instant.from(parsed));
+        }
+        LocalDate date = parsed.query(TemporalQueries.localDate());
+        if (date == null) {
+            return null;
+        }
+        LocalTime time = parsed.query(TemporalQueries.localTime());
+        if (time == null) {
+            time = LocalTime.MIDNIGHT;
+        }
+        return Date.from(date.atTime(time).atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    /**
+     * Week-based year ('Y') cannot be resolved to a date without a week
+     * field, so is read as the year, as SimpleDateFormat effectively did.
+     */
+    private static String toDateTimePattern(String format) {
+        char[] chars = format.toCharArray();
+        boolean inLiteral = false;
+        for (int i = 0; i < chars.length; i++) {
+            if (chars[i] == '\'') {
+                inLiteral = !inLiteral;
+            } else if (!inLiteral && chars[i] == 'Y') {
+                chars[i] = 'y';
+            }
+        }
+        return new String(chars);
+    }
+
+    private static int indexOf(List<CompiledFormat> formats, String format) {
+        for (int i = 0; i < formats.size(); i++) {
+            if (formats.get(i).format.equals(format)) return i;
+        }
+        return -1;
+    }
+
+    private static int[] toArray(List<Integer> list) {
+        int[] ids = new int[list.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = list.get(i);
+        }
+        return ids;
+    }
+
+    /**
+     * Which formats have matched values, e.g. of a column. Updating the
+     * statistics allocates nothing and takes no lock; they are confined to
+     * one thread at a time.
+     */
+    public static class FormatStats {
+
+        // clock value at the last match, by format id; 0 if never matched
+        private final long[] lastHit;
+
+        private long clock;
+
+        FormatStats(int numFormats) {
+            this.lastHit = new long[numFormats];
+        }
+
+        int preferred(int[] ids) {
+            int preferred = -1;
+            long latest = 0;
+            for (int id : ids) {
+                if (lastHit[id] > latest) {
+                    latest = lastHit[id];
+                    preferred = id;
+                }
+            }
+            return preferred;
+        }
+
+        void hit(int id) {
+            clock += 1;
+            lastHit[id] = clock;
+        }
+    }
+
+    private static class CompiledFormat {
+
+        final String format;
+        final DateTimeFormatter formatter;
+
+        CompiledFormat(String format, DateTimeFormatter formatter) {
+            this.format = format;
+            this.formatter = formatter;
+        }
+
+        /**
+         * @return (Date) or null if the whole value does not match the format
+         */
+        Date parse(String value) {
+            return DateParser.parse(formatter, value);
         }
-        return copy;
     }
 }
@@ -0,0 +1,351 @@
+package io.metamorphic.fileservices;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Cuts a delimited file into chunks that each start at the start of a
+ * record, scanning parts of the file in parallel.
+ *
+ * Whether a line ending ends a record depends on whether it is inside a
+ * quoted field, which depends on everything before it. So the file is cut
+ * into ranges at roughly equal offsets, and each range is scanned twice,
+ * at the same time as the others: once supposing it starts outside a
+ * quoted field, and once supposing it starts inside one. Either way, the
+ * scan notes where the first record in the range starts, how many records
+ * end in it, and whether it ends inside a quoted field. A quick pass over
+ * the ranges, in order, then picks the right scan of each, starting from
+ * the known state at the start of the file.
+ *
+ * The rules are those of DelimitedTokenizer, with the FileParameters
+ * given, so a chunk can be tokenized on its own and get the same records
+ * as a tokenizer reading the whole file.
+ *
+ * A range is never cut after a quote, escape, CR, space or a byte of the
+ * delimiter, but moved on to the first byte that doesn't follow one. So a
+ * doubled quote, an escaped character, a CR LF or a delimiter is never
+ * split between ranges, and outside a quoted field, a range starts at the
+ * start of a field only if it follows a line ending.
+ */
+class DelimitedSplitter {
+
+    private static final long MIN_RANGE_SIZE = 1L << 20;
+
+    private static final long MAX_RANGE_SIZE = 64L << 20;
+
+    private final byte[] delimiter;
+    private final int quote;
+    private final int escape;
+    private final boolean skipInitialSpace;
+
+    /**
+     * @param fileParameters (FileParameters) delimiter, quote, escape and
+     *                       skipInitialSpace of the file
+     */
+    DelimitedSplitter(FileParameters fileParameters) {
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer(fileParameters);
+        this.delimiter = fileParameters.getColumnDelimiter().getBytes(StandardCharsets.UTF_8);
+        this.quote = tokenizer.getQuote();
+        this.escape = tokenizer.getEscape();
+        this.skipInitialSpace = fileParameters.isSkipInitialSpace();
+    }
+
+    /**
+     * @param length (long) number of bytes to split
+     * @param numThreads (int) number of threads that will read the chunks
+     * @return (long) a range size giving a few chunks per thread, of
+     *         between 1 and 64MB
+     */
+    static long getRangeSize(long length, int numThreads) {
+        return Math.max(MIN_RANGE_SIZE, Math.min(MAX_RANGE_SIZE, length / (Math.max(1, numThreads) * 4)));
+    }
+
+    /**
+     * @param channel (FileChannel) an open file
+     * @param rangeSize (long) bytes scanned per task; no more than 2GB
+     * @param executor (ExecutorService) runs the scans
+     * @return (Chunks) chunks covering the file, after any UTF-8 byte
+     *         order mark, in order, and the number of records
+     */
+    Chunks split(FileChannel channel, long rangeSize, ExecutorService executor) throws IOException {
+        long size = channel.size();
+        long start = hasUtf8Bom(channel) ? 3 : 0;
+        long[] bounds = getBounds(channel, start, size, rangeSize);
+        int numRanges = bounds.length - 1;
+        List<Future<Scan[]>> futures = new ArrayList<>(numRanges);
+        for (int i = 0; i < numRanges; i++) {
+            long rangeStart = bounds[i];
+            long rangeEnd = bounds[i + 1];
+            boolean first = i == 0;
+            futures.add(executor.submit(() -> scan(channel, rangeStart, rangeEnd, size, first)));
+        }
+        try {
+            List<Chunk> chunks = new ArrayList<>();
+            long numRecords = 0;
+            long chunkStart = start;
+            long chunkLine = 1;
+            long lines = 0;
+            boolean inQuote = false;
+            for (int i = 0; i < numRanges; i++) {
+                Scan scan = futures.get(i).get()[inQuote ? 1 : 0];
+                if (i > 0 && scan.firstRecordStart != -1 && scan.firstRecordStart < size) {
+                    long line = 1 + lines + scan.linesBeforeFirst;
+                    chunks.add(new Chunk(chunkStart, scan.firstRecordStart, chunkLine));
+                    chunkStart = scan.firstRecordStart;
+                    chunkLine = line;
+                }
+                numRecords += scan.numRecords;
+                lines += scan.lines;
+                inQuote = scan.endsInQuote;
+            }
+            chunks.add(new Chunk(chunkStart, size, chunkLine));
+            return new Chunks(chunks, numRecords);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted splitting file");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /**
+     * Cuts [start, size) into ranges of about rangeSize bytes, moving each
+     * cut forward past any byte after which it is not safe.
+     */
+    private long[] getBounds(FileChannel channel, long start, long size, long rangeSize) throws IOException {
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(start);
+        ByteBuffer buf = ByteBuffer.allocate(256);
+        long target = start + rangeSize;
+        while (target < size) {
+            long p = target;
+            boolean safe = false;
+            while (!safe && p < size) {
+                buf.clear();
+                int n = channel.read(buf, p - 1);
+                if (n <= 0) break;
+                for (int i = 0; i < n - 1; i++) {
+                    if (isSafeAfter(buf.get(i))) {
+                        safe = true;
+                        break;
+                    }
+                    p += 1;
+                }
+                if (n == 1) break;
+            }
+            if (!safe || p >= size) break;
+            bounds.add(p);
+            target = p + rangeSize;
+        }
+        bounds.add(size);
+        long[] result = new long[bounds.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = bounds.get(i);
+        }
+        return result;
+    }
+
+    private boolean isSafeAfter(byte b) {
+        if (b == quote || b == escape || b == '\r' || (skipInitialSpace && b == ' ')) {
+            return false;
+        }
+        for (byte d : delimiter) {
+            if (b == d) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Scans a range supposing it starts outside, then inside, a quoted
+     * field.
+     *
+     * @return (Scan[]) the two scans, outside first
+     */
+    private Scan[] scan(FileChannel channel, long start, long end, long size, boolean first) throws IOException {
+        // map a little past the end, to look ahead for a doubled quote or the delimiter
+        long mapStart = first ? start : start - 1;
+        long mapEnd = Math.min(size, end + delimiter.length + 1);
+        ByteBuffer buf = read(channel, mapStart, mapEnd - mapStart);
+        int from = (int) (start - mapStart);
+        int to = (int) (end - mapStart);
+        boolean atRecordStart = first || buf.get(from - 1) == '\n';
+        boolean atEof = end == size;
+        return new Scan[] {
+                scan(buf, from, to, mapStart, false, atRecordStart, atEof),
+                scan(buf, from, to, mapStart, true, false, atEof)
+        };
+    }
+
+    private Scan scan(ByteBuffer buf, int from, int to, long offset, boolean inQuote, boolean atRecordStart,
+                      boolean atEof) {
+        Scan scan = new Scan();
+        int limit = buf.limit();
+        boolean fieldStart = !inQuote && atRecordStart;
+        boolean recordEmpty = !inQuote && atRecordStart;
+
+        // a record of just "" is blank to the tokenizer, so stays empty
+        int emptyQuoteEnd = -1;
+        int p = from;
+        while (p < to) {
+            byte b = buf.get(p);
+            if (inQuote) {
+                if (b == escape && isEscapable(buf, p + 1, limit)) {
+                    p += 2;
+                } else if (b == quote) {
+                    if (p + 1 < limit && buf.get(p + 1) == quote) {
+                        p += 2;
+                    } else {
+                        recordEmpty &= p == emptyQuoteEnd;
+                        inQuote = false;
+                        p += 1;
+                    }
+                } else {
+                    if (b == '\n' || (b == '\r' && (p + 1 == limit || buf.get(p + 1) != '\n'))) {
+                        scan.lines += 1;
+                    }
+                    p += 1;
+                }
+            } else if (b == '\n' || b == '\r') {
+                p += (b == '\r' && p + 1 < limit && buf.get(p + 1) == '\n') ? 2 : 1;
+                scan.lines += 1;
+                if (!recordEmpty) {
+                    scan.numRecords += 1;
+                }
+                if (scan.firstRecordStart == -1) {
+                    scan.firstRecordStart = offset + p;
+                    scan.linesBeforeFirst = scan.lines;
+                }
+                fieldStart = true;
+                recordEmpty = true;
+            } else if (fieldStart && skipInitialSpace && b == ' ') {
+                p += 1;
+            } else if (b == delimiter[0] && matchesDelimiter(buf, p, limit)) {
+                p += delimiter.length;
+                fieldStart = true;
+                recordEmpty = false;
+            } else if (fieldStart && b == quote) {
+                inQuote = true;
+                p += 1;
+                emptyQuoteEnd = p;
+                fieldStart = false;
+            } else {
+                recordEmpty = false;
+                if (b == escape && isEscapable(buf, p + 1, limit)) {
+                    p += 2;
+                } else {
+                    p += 1;
+                }
+                fieldStart = false;
+            }
+        }
+        if (inQuote) {
+            recordEmpty = false;
+        }
+        if (atEof && !recordEmpty) {
+            // the last record has no line ending
+            scan.numRecords += 1;
+        }
+        scan.endsInQuote = inQuote;
+        return scan;
+    }
+
+    /**
+     * Maps a region of the file, or reads it if it is too small to be worth
+     * mapping.
+     */
+    private static ByteBuffer read(FileChannel channel, long position, long length) throws IOException {
+        if (length >= MIN_RANGE_SIZE) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        }
+        ByteBuffer buf = ByteBuffer.allocate((int) length);
+        while (buf.hasRemaining()) {
+            if (channel.read(buf, position + buf.position()) < 0) {
+                throw new EOFException("File changed while splitting");
+            }
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private boolean isEscapable(ByteBuffer buf, int p, int limit) {
+        if (p >= limit) return false;
+        byte b = buf.get(p);
+        return b == quote || b == escape || (b == delimiter[0] && matchesDelimiter(buf, p, limit));
+    }
+
+    private boolean matchesDelimiter(ByteBuffer buf, int p, int limit) {
+        if (p + delimiter.length > limit) return false;
+        for (int i = 1; i < delimiter.length; i++) {
+            if (buf.get(p + i) != delimiter[i]) return false;
+        }
+        return true;
+    }
+
+    private static boolean hasUtf8Bom(FileChannel channel) throws IOException {
+        ByteBuffer bom = ByteBuffer.allocate(3);
+        while (bom.hasRemaining() && channel.read(bom, bom.position()) > 0) {
+            // read up to three bytes
+        }
+        return bom.position() == 3 && bom.get(0) == (byte) 0xEF && bom.get(1) == (byte) 0xBB &&
+                bom.get(2) == (byte) 0xBF;
+    }
+
+    /**
+     * What a scan of a range found, supposing a quote state at its start.
+     */
+    private static class Scan {
+
+        // offset in the file of the first record starting in the range, or -1
+        long firstRecordStart = -1;
+
+        // line endings in the range, and before firstRecordStart
+        long lines;
+        long linesBeforeFirst;
+
+        // records, not counting blank lines, that end in the range
+        long numRecords;
+
+        boolean endsInQuote;
+    }
+
+    static class Chunks {
+
+        final List<Chunk> chunks;
+
+        // records in the file, not counting blank lines
+        final long numRecords;
+
+        Chunks(List<Chunk> chunks, long numRecords) {
+            this.chunks = chunks;
+            this.numRecords = numRecords;
+        }
+    }
+
+    static class Chunk {
+
+        final long start;
+        final long end;
+
+        // line number of the first line of the chunk
+        final long firstLine;
+
+        Chunk(long start, long end, long firstLine) {
+            this.start = start;
+            this.end = end;
+            this.firstLine = firstLine;
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package io.metamorphic.fileservices;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Splits UTF-8 encoded delimited data into records and fields, in place.
+ *
+ * The tokenizer works on a window of a ByteBuffer, e.g. a mapped region of
+ * a file, or the bytes of a sample. next() finds the fields of the next
+ * record, keeping only the offsets of each; nothing is allocated until a
+ * value is asked for with get. A field that needs no unquoting is decoded
+ * straight from the buffer.
+ *
+ * Fields are read as set in FileParameters:
+ *
+ *   columnDelimiter separates fields, and may be longer than a character;
+ *   a field starting with textQualifier is quoted, and may hold the
+ *     delimiter and line endings. Anything after the closing quote, up to
+ *     the delimiter, is kept. With QUOTE_NONE, quotes are not special;
+ *   a doubled quote inside a quoted field is one quote. This is read
+ *     whether or not doubleQuoted was detected, as a sample may not have
+ *     had a quote to detect it from;
+ *   escapeCharacter, if set, escapes a quote, the delimiter or itself. Before
+ *     any other character it is kept;
+ *   with skipInitialSpace, spaces at the start of a field are dropped.
+ *
+ * A record ends at LF, CR LF or CR outside a quoted field. Because every
+ * byte of a multi-byte UTF-8 sequence is 0x80 or more, the delimiter, quote
+ * and escape can be matched byte by byte; the quote and escape must be
+ * ASCII.
+ */
+class DelimitedTokenizer {
+
+    private static final int INITIAL_FIELDS = 16;
+
+    // no quote or escape character; matches no byte
+    private static final int NONE = Integer.MIN_VALUE;
+
+    private final byte[] delimiter;
+    private final int quote;
+    private final int escape;
+    private final boolean skipInitialSpace;
+
+    private ByteBuffer buf;
+    private int pos;
+    private int limit;
+    private long lineNumber;
+    private long recordLineNumber;
+
+    // per field of the current record: the value, or for a field that
+    // must be unquoted, the raw field
+    private int numFields;
+    private int[] starts = new int[INITIAL_FIELDS];
+    private int[] ends = new int[INITIAL_FIELDS];
+    private boolean[] raw = new boolean[INITIAL_FIELDS];
+
+    private byte[] scratch = new byte[256];
+
+    /**
+     * @param fileParameters (FileParameters) delimiter, quote, escape and
+     *                       skipInitialSpace of the data
+     */
+    DelimitedTokenizer(FileParameters fileParameters) {
+        String columnDelimiter = fileParameters.getColumnDelimiter();
+        if (columnDelimiter == null || columnDelimiter.isEmpty() || columnDelimiter.charAt(0) == 0) {
+            throw new IllegalArgumentException("The column delimiter must be defined");
+        }
+        this.delimiter = columnDelimiter.getBytes(StandardCharsets.UTF_8);
+        if (fileParameters.getQuoting() == FileParameters.QUOTING.QUOTE_NONE) {
+            this.quote = NONE;
+        } else {
+            this.quote = toAscii(FileServiceImpl.getQuoteChar(fileParameters.getTextQualifier()));
+        }
+        Character escapeCharacter = fileParameters.getEscapeCharacter();
+        int escape = (escapeCharacter == null) ? NONE : toAscii(escapeCharacter);
+        this.escape = (escape == quote) ? NONE : escape;
+        this.skipInitialSpace = fileParameters.isSkipInitialSpace();
+    }
+
+    /**
+     * @return (int) the quote character, or a value no byte equals if
+     *         quotes are not special
+     */
+    int getQuote() {
+        return quote;
+    }
+
+    /**
+     * @return (int) the escape character, or a value no byte equals if
+     *         there is none
+     */
+    int getEscape() {
+        return escape;
+    }
+
+    /**
+     * Starts reading from the position to the limit of buf.
+     *
+     * @param buf (ByteBuffer) UTF-8 encoded data
+     * @param firstLineNumber (long) line number of the first line, for getLineNumber
+     */
+    void reset(ByteBuffer buf, long firstLineNumber) {
+        this.buf = buf;
+        this.pos = buf.position();
+        this.limit = buf.limit();
+        this.lineNumber = firstLineNumber;
+        this.numFields = 0;
+    }
+
+    void reset(ByteBuffer buf) {
+        reset(buf, 1);
+    }
+
+    /**
+     * Finds the fields of the next record.
+     *
+     * @return (boolean) false at the end of the data
+     */
+    boolean next() {
+        numFields = 0;
+        if (pos >= limit) {
+            return false;
+        }
+        recordLineNumber = lineNumber;
+        while (true) {
+            int end = readField();
+            if (end == limit) {
+                pos = limit;
+                return true;
+            }
+            byte b = buf.get(end);
+            if (b == '\n') {
+                lineNumber += 1;
+                pos = end + 1;
+                return true;
+            } else if (b == '\r') {
+                lineNumber += 1;
+                pos = (end + 1 < limit && buf.get(end + 1) == '\n') ? end + 2 : end + 1;
+                return true;
+            }
+            // a delimiter; a record ending with one has an empty last field
+            pos = end + delimiter.length;
+            if (pos == limit) {
+                addField(pos, pos, false);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Reads a field from pos.
+     *
+     * @return (int) index of the delimiter or line ending after the field,
+     *         or limit
+     */
+    private int readField() {
+        int p = pos;
+        if (skipInitialSpace) {
+            while (p < limit && buf.get(p) == ' ') {
+                p += 1;
+            }
+        }
+        int fieldStart = p;
+        if (p < limit && buf.get(p) == quote) {
+            p += 1;
+            int closingQuote = -1;
+            boolean unquote = false;
+            while (p < limit) {
+                byte b = buf.get(p);
+                if (b == escape && p + 1 < limit && isEscapable(p + 1)) {
+                    unquote = true;
+                    p += 2;
+                } else if (b == quote) {
+                    if (p + 1 < limit && buf.get(p + 1) == quote) {
+                        unquote = true;
+                        p += 2;
+                    } else {
+                        closingQuote = p;
+                        p += 1;
+                        break;
+                    }
+                } else {
+                    if (b == '\n' || (b == '\r' && (p + 1 == limit || buf.get(p + 1) != '\n'))) {
+                        lineNumber += 1;
+                    }
+                    p += 1;
+                }
+            }
+            int end = findEnd(p);
+            if (closingQuote == -1 || end != closingQuote + 1) {
+                // unterminated, or followed by more text
+                unquote = true;
+            }
+            if (unquote) {
+                addField(fieldStart, end, true);
+            } else {
+                addField(fieldStart + 1, closingQuote, false);
+            }
+            return end;
+        }
+        int end = findEnd(p);
+        addField(fieldStart, end, hasEscape(fieldStart, end));
+        return end;
+    }
+
+    /**
+     * @return (int) index of the first delimiter or line ending from p,
+     *         outside a quoted field, or limit
+     */
+    private int findEnd(int p) {
+        byte first = delimiter[0];
+        while (p < limit) {
+            byte b = buf.get(p);
+            if (b == '\n' || b == '\r') {
+                return p;
+            }
+            if (b == first && matchesDelimiter(p)) {
+                return p;
+            }
+            if (b == escape && p + 1 < limit && isEscapable(p + 1)) {
+                p += 2;
+            } else {
+                p += 1;
+            }
+        }
+        return limit;
+    }
+
+    private boolean matchesDelimiter(int p) {
+        if (p + delimiter.length > limit) {
+            return false;
+        }
+        for (int i = 1; i < delimiter.length; i++) {
+            if (buf.get(p + i) != delimiter[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasEscape(int start, int end) {
+        if (escape == NONE) {
+            return false;
+        }
+        for (int p = start; p < end; p++) {
+            if (buf.get(p) == escape) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void addField(int start, int end, boolean unquote) {
+        if (numFields == starts.length) {
+            starts = Arrays.copyOf(starts, numFields * 2);
+            ends = Arrays.copyOf(ends, numFields * 2);
+            raw = Arrays.copyOf(raw, numFields * 2);
+        }
+        starts[numFields] = start;
+        ends[numFields] = end;
+        raw[numFields] = unquote;
+        numFields += 1;
+    }
+
+    /**
+     * @return (int) index in the buffer at which the next record starts
+     */
+    int position() {
+        return pos;
+    }
+
+    /**
+     * @return (int) number of fields in the current record
+     */
+    int size() {
+        return numFields;
+    }
+
+    /**
+     * @return (long) line number at which the current record starts
+     */
+    long getLineNumber() {
+        return recordLineNumber;
+    }
+
+    /**
+     * @param i (int) field index
+     * @return (boolean) true if the field is empty, without decoding it
+     */
+    boolean isEmpty(int i) {
+        return starts[i] == ends[i];
+    }
+
+    /**
+     * @param i (int) field index
+     * @return (String) the value of the field, unquoted and unescaped
+     */
+    String get(int i) {
+        int start = starts[i];
+        int end = ends[i];
+        if (!raw[i]) {
+            return decode(start, end);
+        }
+        return unquote(start, end);
+    }
+
+    private String decode(int start, int end) {
+        int len = end - start;
+        if (len == 0) {
+            return "";
+        }
+        if (buf.hasArray()) {
+            return new String(buf.array(), buf.arrayOffset() + start, len, StandardCharsets.UTF_8);
+        }
+        byte[] bytes = scratch(len);
+        for (int p = start; p < end; p++) {
+            bytes[p - start] = buf.get(p);
+        }
+        return new String(bytes, 0, len, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Copies a raw field, dropping its enclosing quotes, the second of each
+     * doubled quote, and escape characters that escape something.
+     */
+    private String unquote(int start, int end) {
+        byte[] bytes = scratch(end - start);
+        int len = 0;
+        int p = start;
+        boolean inQuote = false;
+        if (p < end && buf.get(p) == quote) {
+            inQuote = true;
+            p += 1;
+        }
+        while (p < end) {
+            byte b = buf.get(p);
+            if (b == escape && p + 1 < end && isEscapable(p + 1)) {
+                bytes[len++] = buf.get(p + 1);
+                p += 2;
+            } else if (inQuote && b == quote) {
+                if (p + 1 < end && buf.get(p + 1) == quote) {
+                    bytes[len++] = b;
+                    p += 2;
+                } else {
+                    inQuote = false;
+                    p += 1;
+                }
+            } else {
+                bytes[len++] = b;
+                p += 1;
+            }
+        }
+        return new String(bytes, 0, len, StandardCharsets.UTF_8);
+    }
+
+    private boolean isEscapable(int p) {
+        byte b = buf.get(p);
+        return b == quote || b == escape || (b == delimiter[0] && matchesDelimiter(p));
+    }
+
+    private byte[] scratch(int len) {
+        if (scratch.length < len) {
+            scratch = new byte[Math.max(len, scratch.length * 2)];
+        }
+        return scratch;
+    }
+
+    private static int toAscii(char c) {
+        if (c > 0x7F) {
+            throw new IllegalArgumentException("Quote and escape characters must be ASCII: " + c);
+        }
+        return c;
+    }
+}
@@ -5,4 +5,8 @@ public class ExtractionException extends Exception {
     public ExtractionException(String message) {
         super(message);
     }
+
+    public ExtractionException(String message, Throwable cause) {
+        super(message, cause);
+    }
 }
@@ -0,0 +1,156 @@
+package io.metamorphic.fileservices;
+
+import java.nio.charset.Charset;
+
+/**
+ * Options controlling how much of a file is read when extracting metadata
+ * from a stream.
+ *
+ * headWindow is the number of bytes read from the start of the file
+ *   before the first attempt at sniffing.
+ *
+ * maxWindow is the upper bound on the number of bytes read. The window
+ *   is doubled each time sniffing is inconclusive, up to this limit.
+ *
+ * sampleSize is the number of rows used for type inference. The window
+ *   is grown until it holds at least this many lines (plus a header).
+ *
+ * charset is used to decode the bytes read. It defaults to the platform
+ *   charset, consistent with FileServiceImpl.readFileAsString.
+ *
+ * samplingMode RESERVOIR takes the sampleSize rows from across the whole
+ *   file instead of from its head. probes windows of probeWindow bytes are
+ *   read at random offsets, so the I/O cost is fixed whatever the size of
+ *   the file. The seed makes the sample, and so the inferred types,
+ *   repeatable.
+ *
+ * jsonSampleSize is the number of records read from a JSON file. JSON is
+ *   parsed as a stream, so records are read past the window as needed.
+ *   Zero reads every record in the file.
+ *
+ * jsonSplits is the number of ranges a JSON Lines file is split into, at
+ *   newlines, to be read in parallel, one thread per range. The records
+ *   read are shared evenly across the ranges. One reads the file from its
+ *   head only, as does a charset, such as UTF-16, that doesn't encode ASCII
+ *   as ASCII.
+ */
+public class ExtractionOptions {
+
+    public static final int DEFAULT_HEAD_WINDOW = 64 * 1024;
+
+    public static final int DEFAULT_MAX_WINDOW = 16 * 1024 * 1024;
+
+    public static final int DEFAULT_SAMPLE_SIZE = 20;
+
+    public static final int DEFAULT_JSON_SAMPLE_SIZE = 1000;
+
+    public static final int DEFAULT_JSON_SPLITS = 1;
+
+    public static final int DEFAULT_PROBES = 64;
+
+    public static final int DEFAULT_PROBE_WINDOW = 16 * 1024;
+
+    private int headWindow;
+    private int maxWindow;
+    private int sampleSize;
+    private Charset charset;
+    private SamplingMode samplingMode;
+    private int probes;
+    private int probeWindow;
+    private long seed;
+    private int jsonSampleSize;
+    private int jsonSplits;
+
+    public ExtractionOptions() {
+        this.headWindow = DEFAULT_HEAD_WINDOW;
+        this.maxWindow = DEFAULT_MAX_WINDOW;
+        this.sampleSize = DEFAULT_SAMPLE_SIZE;
+        this.charset = Charset.defaultCharset();
+        this.samplingMode = SamplingMode.HEAD;
+        this.probes = DEFAULT_PROBES;
+        this.probeWindow = DEFAULT_PROBE_WINDOW;
+        this.seed = 0;
+        this.jsonSampleSize = DEFAULT_JSON_SAMPLE_SIZE;
+        this.jsonSplits = DEFAULT_JSON_SPLITS;
+    }
+
+    public int getHeadWindow() {
+        return headWindow;
+    }
+
+    public void setHeadWindow(int headWindow) {
+        this.headWindow = headWindow;
+    }
+
+    public int getMaxWindow() {
+        return maxWindow;
+    }
+
+    public void setMaxWindow(int maxWindow) {
+        this.maxWindow = maxWindow;
+    }
+
+    public int getSampleSize() {
+        return sampleSize;
+    }
+
+    public void setSampleSize(int sampleSize) {
+        this.sampleSize = sampleSize;
+    }
+
+    public Charset getCharset() {
+        return charset;
+    }
+
+    public void setCharset(Charset charset) {
+        this.charset = charset;
+    }
+
+    public SamplingMode getSamplingMode() {
+        return samplingMode;
+    }
+
+    public void setSamplingMode(SamplingMode samplingMode) {
+        this.samplingMode = samplingMode;
+    }
+
+    public int getProbes() {
+        return probes;
+    }
+
+    public void setProbes(int probes) {
+        this.probes = probes;
+    }
+
+    public int getProbeWindow() {
+        return probeWindow;
+    }
+
+    public void setProbeWindow(int probeWindow) {
+        this.probeWindow = probeWindow;
+    }
+
+    public long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(long seed) {
+        this.seed = seed;
+    }
+
+    public int getJsonSampleSize() {
+        return jsonSampleSize;
+    }
+
+    public void setJsonSampleSize(int jsonSampleSize) {
+        this.jsonSampleSize = jsonSampleSize;
+    }
+
+    public int getJsonSplits() {
+        return jsonSplits;
+    }
+
+    public void setJsonSplits(int jsonSplits) {
+        this.jsonSplits = jsonSplits;
+    }
+}
@@ -0,0 +1,58 @@
+package io.metamorphic.fileservices;
+
+import io.metamorphic.models.DatasetInfo;
+
+import java.nio.file.Path;
+
+/**
+ * The outcome of extracting metadata from one file in a batch: either the
+ * DatasetInfo, or the exception that stopped extraction, and the time
+ * taken either way.
+ */
+public class ExtractionResult {
+
+    private Path path;
+    private String datasetName;
+    private DatasetInfo datasetInfo;
+    private Exception error;
+    private long elapsedMillis;
+
+    ExtractionResult(Path path, String datasetName, DatasetInfo datasetInfo, Exception error,
+                     long elapsedMillis) {
+        this.path = path;
+        this.datasetName = datasetName;
+        this.datasetInfo = datasetInfo;
+        this.error = error;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public String getDatasetName() {
+        return datasetName;
+    }
+
+    /**
+     * @return (DatasetInfo) or null if extraction failed
+     */
+    public DatasetInfo getDatasetInfo() {
+        return datasetInfo;
+    }
+
+    /**
+     * @return (Exception) or null if extraction succeeded
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+}
@@ -36,6 +36,13 @@ import java.util.Map;
  * escapeChar specifies a one-character string used to escape
  *   the delimiter when quoting is set to QUOTE_NONE.
  *
+ * quoteVotes and delimiterVotes record how many quoted fields in the
+ *   sample supported the textQualifier and columnDelimiter, when they
+ *   were guessed from quoting.
+ *
+ * columnWidths is the width of each column of a fixed-width file, in
+ *   characters. It is null for a delimited file.
+ *
  * Created by markmo on 5/04/15.
  */
 public class FileParameters {
@@ -58,6 +65,9 @@ public class FileParameters {
     private String firstDateFormat;
     private String firstDateTimeFormat;
     private Map<String, String> srcFormats;
+    private int quoteVotes;
+    private int delimiterVotes;
+    private int[] columnWidths;
 
     public FileParameters() {
         this.textQualifier = "\"";
@@ -177,4 +187,28 @@ public class FileParameters {
     public void setSrcFormats(Map<String, String> srcFormats) {
         this.srcFormats = srcFormats;
     }
+
+    public int getQuoteVotes() {
+        return quoteVotes;
+    }
+
+    public void setQuoteVotes(int quoteVotes) {
+        this.quoteVotes = quoteVotes;
+    }
+
+    public int getDelimiterVotes() {
+        return delimiterVotes;
+    }
+
+    public void setDelimiterVotes(int delimiterVotes) {
+        this.delimiterVotes = delimiterVotes;
+    }
+
+    public int[] getColumnWidths() {
+        return columnWidths;
+    }
+
+    public void setColumnWidths(int[] columnWidths) {
+        this.columnWidths = columnWidths;
+    }
 }
@@ -3,6 +3,8 @@ package io.metamorphic.fileservices;
 import io.metamorphic.models.DatasetInfo;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
 import java.util.List;
 
 /**
@@ -19,10 +21,22 @@ public interface FileService {
     DatasetInfo extractMetadata(String dataSourceName, String datasetName, String data)
             throws ExtractionException, IOException;
 
+    DatasetInfo extractMetadata(String dataSourceName, String datasetName, Path path, ExtractionOptions options)
+            throws ExtractionException, IOException;
+
+    DatasetInfo extractMetadata(String dataSourceName, String datasetName, InputStream in, ExtractionOptions options)
+            throws ExtractionException, IOException;
+
+    ValidationResult validate(Path path, DatasetInfo datasetInfo) throws ExtractionException, IOException;
+
+    long countRecords(Path path, FileParameters fileParameters) throws IOException;
+
     FileParameters findMultiCharSequences(String data, String lineEnding);
 
     void generateDataFromDDL(String ddl, int numRows) throws IOException;
 
+    void generateDataFromDDL(String ddl, long numRows, Path path, boolean gzip) throws IOException;
+
     FileParameters guessDelimiter(String data, String lineEnding);
 
     FileParameters guessQuoteAndDelimiter(String data, String lineEnding);
@@ -1,33 +1,48 @@
 package io.metamorphic.fileservices;
 
 import au.com.bytecode.opencsv.CSVParser;
-import au.com.bytecode.opencsv.CSVReader;
-import au.com.bytecode.opencsv.CSVWriter;
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.JsonToken;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.github.javafaker.Faker;
-import com.moilioncircle.ddl.parser.ColumnElement;
 import com.moilioncircle.ddl.parser.MysqlDDLParser;
 import com.moilioncircle.ddl.parser.TableElement;
 import io.metamorphic.commons.Pair;
 import io.metamorphic.models.*;
+import io.metamorphic.models.Record;
 import org.apache.commons.io.input.BOMInputStream;
+import org.apache.commons.io.input.CloseShieldInputStream;
 import org.apache.commons.lang3.StringEscapeUtils;
 import org.apache.logging.log4j.LogManager;
 import org.apache.logging.log4j.Logger;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import static io.metamorphic.commons.utils.ArrayUtils.*;
 import static io.metamorphic.commons.utils.StringUtils.*;
 
 /**
+ * Holds no per-extraction state, so one instance may be shared between
+ * threads, e.g. by a BatchExtractor.
+ *
  * Created by markmo on 18/05/15.
  */
 public class FileServiceImpl implements FileService {
@@ -36,8 +51,15 @@ public class FileServiceImpl implements FileService {
 
     private static final char[] preferredColumnDelimiters = new char[] { ',', '\t', ';', ' ', '|' };
 
-    // row delimiters tested for
-    private static final String[] lineEndings = new String[] { "\n", "\r\n", "\r", "<ret>" };
+    // row delimiters tested for; CR LF first, as splitting a CR LF file on
+    // either CR or LF alone gives the same variance in line length
+    private static final String[] lineEndings = new String[] { "\r\n", "\n", "\r", "<ret>" };
+
+    // number of characters scanned for line endings, grown if too few lines are found
+    private static final int READ_LINES_WINDOW = 64 * 1024;
+
+    // number of characters of a sample first encoded to read rows from
+    private static final int READ_ROWS_WINDOW = 64 * 1024;
 
     // to resolve ambiguity when a value qualifies for more than one type
     private static final List<ValueTypes> typeHierarchy = Arrays.asList(
@@ -54,8 +76,16 @@ public class FileServiceImpl implements FileService {
 
     private TypeParser typeParser;
 
+    private volatile DateParser dateParser;
+
     private static final int MAX_SAMPLE_SIZE = 20;
 
+    // lines of a sample examined for a fixed-width layout
+    private static final int MAX_FIXED_WIDTH_LINES = 1000;
+
+    // candidate delimiters are looked for in the two-byte UTF8 range
+    private static final int DELIMITER_CHAR_RANGE = 2048;
+
     public FileServiceImpl() {
         typeParser = new TypeParser();
         typeParser.registerTypeParser(Boolean.class, new BooleanParser());
@@ -66,67 +96,420 @@ public class FileServiceImpl implements FileService {
         if (resource != null) {
             try {
                 String[] dateFormats = readDateFormats(resource);
-                typeParser.registerTypeParser(ParsedDate.class, new DateParser(dateFormats));
+                setDateParser(new DateParser(dateFormats));
             } catch (IOException e) {
                 log.warn("Error reading 'date_formats.txt' file: " + e.getMessage());
-                typeParser.registerTypeParser(ParsedDate.class, new DateParser());
+                setDateParser(new DateParser());
             }
         } else {
             log.warn("Could not find 'date_formats.txt' file.");
-            typeParser.registerTypeParser(ParsedDate.class, new DateParser());
+            setDateParser(new DateParser());
         }
     }
 
     public void setDateFormats(String[] dateFormats) {
-        typeParser.registerTypeParser(ParsedDate.class, new DateParser(dateFormats));
+        setDateParser(new DateParser(dateFormats));
+    }
+
+    private void setDateParser(DateParser dateParser) {
+        this.dateParser = dateParser;
+        typeParser.registerTypeParser(ParsedDate.class, dateParser);
     }
 
+    /**
+     * Classifies a value in a single pass over its characters, without
+     * exceptions. Only values containing a digit are tried as dates, since
+     * every date format has a numeric field.
+     *
+     * The TypeInfo returned is a shared, immutable instance.
+     *
+     * @param value (String)
+     * @return (TypeInfo)
+     */
     public TypeInfo deduceDataType(String value) {
-        if (value == null) return new TypeInfo(ValueTypes.NONE);
-        String v = value.trim();
-        if (v.isEmpty()) return new TypeInfo(ValueTypes.NONE);
-        Matcher m = NUMERIC_PATTERN.matcher(value);
-        try {
-            Integer i = Integer.parseInt(v, 10);
-            // check that the decimal place is not truncated
-            if (i.toString().equals(v)) {
-                if (i == 0 || i == 1) {
-                    return new TypeInfo(ValueTypes.BIT);
-                } else {
-                    return new TypeInfo(ValueTypes.INTEGER);
+        return deduceDataType(value, null);
+    }
+
+    /**
+     * @param value (String)
+     * @param dateStats (DateParser.FormatStats) date formats matched so far in the
+     *                  column, or null to use those of the calling thread
+     * @return (TypeInfo)
+     */
+    private TypeInfo deduceDataType(String value, DateParser.FormatStats dateStats) {
+        if (value == null) return TypeInfo.of(ValueTypes.NONE);
+        int start = 0;
+        int end = value.length();
+        while (start < end && value.charAt(start) <= ' ') start++;
+        while (end > start && value.charAt(end - 1) <= ' ') end--;
+        if (start == end) return TypeInfo.of(ValueTypes.NONE);
+        ValueTypes numberType = classifyNumber(value, start, end);
+        if (numberType != null) return TypeInfo.of(numberType);
+        if (hasDigit(value, start, end)) {
+            String v = (start == 0 && end == value.length()) ? value : value.substring(start, end);
+            ParsedDate dt = dateParser.parse(v, dateStats);
+            if (dt != null) return TypeInfo.ofDate(dt.getFormat());
+        } else if (BooleanParser.isBoolean(value, start, end)) {
+            // "1" and "0" are classified as BIT
+            return TypeInfo.of(ValueTypes.BOOLEAN);
+        }
+        if (end - start > 128) return TypeInfo.of(ValueTypes.TEXT);
+        return TypeInfo.of(ValueTypes.STRING);
+    }
+
+    /**
+     * Classifies value[start, end) as BIT or INTEGER if it is an int written
+     * in canonical form (as Integer.toString would write it), as NUMERIC if
+     * it matches NUMERIC_PATTERN, otherwise returns null.
+     */
+    private static ValueTypes classifyNumber(String value, int start, int end) {
+        int i = start;
+        char c = value.charAt(i);
+        boolean signed = (c == '+' || c == '-');
+        boolean negative = (c == '-');
+        if (signed) i++;
+        int intStart = i;
+        long n = 0;
+        while (i < end && (c = value.charAt(i)) >= '0' && c <= '9') {
+            if (i - intStart < 11) n = n * 10 + (c - '0');
+            i++;
+        }
+        int intDigits = i - intStart;
+        if (intDigits == 0) return null;
+        boolean leadingZero = value.charAt(intStart) == '0';
+        if (i == end) {
+            boolean canonical = value.charAt(start) != '+' && (!leadingZero || (intDigits == 1 && !negative));
+            if (canonical && intDigits <= 10) {
+                long v = negative ? -n : n;
+                if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE) {
+                    return (v == 0 || v == 1) ? ValueTypes.BIT : ValueTypes.INTEGER;
                 }
             }
-        } catch (NumberFormatException e) {
-            // ignore
+            // a leading zero is only allowed before a decimal point
+            return leadingZero ? null : ValueTypes.NUMERIC;
+        }
+        if (c != '.' || (leadingZero && intDigits > 1)) return null;
+        i++;
+        int fractionStart = i;
+        while (i < end && (c = value.charAt(i)) >= '0' && c <= '9') i++;
+        return (i == end && i > fractionStart) ? ValueTypes.NUMERIC : null;
+    }
+
+    private static boolean hasDigit(String value, int start, int end) {
+        for (int i = start; i < end; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') return true;
         }
-        if (m.matches()) {
+        return false;
+    }
+
+    public DatasetInfo extractMetadata(String dataSourceName, String datasetName, String data)
+            throws ExtractionException, IOException {
+        return extractMetadata(dataSourceName, datasetName, data, MAX_SAMPLE_SIZE);
+    }
+
+    public DatasetInfo extractMetadata(String dataSourceName, String datasetName, Path path,
+                                       ExtractionOptions options)
+            throws ExtractionException, IOException {
+        if (log.isDebugEnabled()) {
+            log.debug("Reading file: " + path.toAbsolutePath());
+        }
+        if (options.getJsonSplits() > 1 && JsonLinesSplitter.canSplit(options.getCharset()) &&
+                detectFormat(path, options) == FormatDetector.Format.JSON_LINES) {
+            JsonLinesSplitter splitter = new JsonLinesSplitter(dateParser, options.getCharset(),
+                    options.getJsonSplits(), options.getJsonSampleSize());
+            ExecutorService executor = Executors.newFixedThreadPool(options.getJsonSplits());
             try {
-                Double.parseDouble(v);
-                return new TypeInfo(ValueTypes.NUMERIC);
-            } catch (NumberFormatException e) {
-                // ignore
+                return getJsonDatasetInfo(dataSourceName, datasetName, splitter.infer(path, executor));
+            } finally {
+                executor.shutdownNow();
             }
         }
-        ParsedDate dt = typeParser.parse(v, ParsedDate.class);
-        if (dt != null) return new TypeInfo(ValueTypes.DATE, "format", dt.getFormat());
-        Boolean bool = typeParser.parse(v, Boolean.class);
-        if (bool != null) return new TypeInfo(ValueTypes.BOOLEAN);
-        if (v.length() > 128) return new TypeInfo(ValueTypes.TEXT);
-        return new TypeInfo(ValueTypes.STRING);
+        if (options.getSamplingMode() == SamplingMode.RESERVOIR) {
+            return extractSampledMetadata(dataSourceName, datasetName, path, options);
+        }
+        InputStream in = Files.newInputStream(path);
+        try {
+            return extractMetadata(dataSourceName, datasetName, in, options);
+        } finally {
+            in.close();
+        }
     }
 
-    public DatasetInfo extractMetadata(String dataSourceName, String datasetName, String data)
+    private static FormatDetector.Format detectFormat(Path path, ExtractionOptions options) throws IOException {
+        InputStream in = Files.newInputStream(path);
+        try {
+            PrefixReader reader = new PrefixReader(in);
+            reader.fill(options.getHeadWindow());
+            return reader.detectFormat();
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void checkSupported(FormatDetector.Format format) throws ExtractionException {
+        if (format.isBinary()) {
+            throw new ExtractionException("Unsupported file format: " + format);
+        }
+    }
+
+    /**
+     * Sniffs the file structure from the head window, then infers types
+     * from rows drawn from across the whole file by a ReservoirSampler,
+     * so that e.g. a column which is empty for the first week of a file is
+     * still typed correctly.
+     */
+    private DatasetInfo extractSampledMetadata(String dataSourceName, String datasetName, Path path,
+                                               ExtractionOptions options)
+            throws ExtractionException, IOException {
+        int sampleSize = options.getSampleSize();
+        PrefixReader reader;
+        InputStream in = Files.newInputStream(path);
+        try {
+            reader = new PrefixReader(in);
+            reader.fill(options.getHeadWindow());
+        } finally {
+            in.close();
+        }
+
+        FormatDetector.Format format = reader.detectFormat();
+        if (format.isCompressed()) {
+            // the records of a compressed file can't be reached at random offsets
+            if (log.isDebugEnabled()) {
+                log.debug("Compressed file, sampling from the head");
+            }
+            in = Files.newInputStream(path);
+            try {
+                return extractMetadata(dataSourceName, datasetName, in, options);
+            } finally {
+                in.close();
+            }
+        }
+        checkSupported(format);
+
+        // strip blank lines at the start of the file
+        String head = reader.decode(options.getCharset()).replaceAll("^\\s+", "");
+
+        if (format.isJson()) {
+            in = Files.newInputStream(path);
+            try {
+                return readJsonSample(dataSourceName, datasetName,
+                        createJsonParser(new BOMInputStream(in, false), options.getCharset()),
+                        options.getJsonSampleSize());
+            } finally {
+                in.close();
+            }
+        }
+        String lineEnding = readLines(head).lineEnding;
+        FileParameters fileParameters = sniff(head, lineEnding);
+        if (fileParameters == null) {
+            throw new ExtractionException("Could not determine file parameters");
+        }
+        String delimiter = fileParameters.getColumnDelimiter();
+        if (!isDefined(delimiter)) {
+            // the sampler can't split records on an empty or NUL delimiter
+            throw new ExtractionException("Could not determine column delimiter");
+        }
+        char quotechar = getQuoteChar(fileParameters.getTextQualifier());
+
+        // the first record is kept in place, as it may be a header
+        String[] records = RecordSplitter.split(head, lineEnding, quotechar);
+        ReservoirSampler sampler = new ReservoirSampler(sampleSize, lineEnding, delimiter, quotechar,
+                ReservoirSampler.countFields(records[0], delimiter, quotechar), options.getSeed());
+        for (int i = 1; i < records.length; i++) {
+            if (!records[i].isEmpty()) {
+                sampler.add(records[i]);
+            }
+        }
+        if (!reader.isEof()) {
+            FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+            try {
+                sampler.probe(channel, reader.length(), options.getProbes(), options.getProbeWindow(),
+                        options.getCharset());
+            } finally {
+                channel.close();
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("sampled " + sampleSize + " of " + sampler.getSeen() + " records read");
+        }
+        StringBuilder sb = new StringBuilder(records[0]);
+        for (String record : sampler.getSample()) {
+            sb.append(lineEnding).append(record);
+        }
+        return extractMetadata(dataSourceName, datasetName, sb.toString(), sampleSize + 1);
+    }
+
+    /**
+     * Reads only as much of the stream as is needed to infer the file
+     * structure. A head window is read first, and grown until it holds
+     * enough lines for the sample. If sniffing is inconclusive, the window
+     * is doubled and extraction retried, until the end of the stream or
+     * the maximum window is reached.
+     *
+     * A compressed stream (gzip, zip or tar) is inflated as it is read,
+     * so only the prefix needed is ever decompressed.
+     *
+     * The stream is not closed.
+     *
+     * @param in (InputStream) file contents
+     * @param options (ExtractionOptions) window sizes, sample size and charset
+     * @return (DatasetInfo)
+     */
+    public DatasetInfo extractMetadata(String dataSourceName, String datasetName, InputStream in,
+                                       ExtractionOptions options)
+            throws ExtractionException, IOException {
+        PrefixReader reader = new PrefixReader(in);
+        int sampleSize = options.getSampleSize();
+        int maxWindow = Math.max(options.getHeadWindow(), options.getMaxWindow());
+        int window = Math.min(options.getHeadWindow(), maxWindow);
+        reader.fill(window);
+
+        FormatDetector.Format format = reader.detectFormat();
+        if (format.isCompressed()) {
+            return extractCompressedMetadata(dataSourceName, datasetName, reader.stream(), format, options);
+        }
+        checkSupported(format);
+
+        // include a line for the header, and one that may be incomplete
+        while (!reader.isEof() && window < maxWindow && reader.countLines() < sampleSize + 2) {
+            window = (int) Math.min((long) window * 2, maxWindow);
+            reader.fill(window);
+        }
+        if (format.isJson()) {
+            if (log.isDebugEnabled()) {
+                log.debug("Reading JSON");
+            }
+            return readJsonSample(dataSourceName, datasetName,
+                    createJsonParser(reader.stream(), options.getCharset()), options.getJsonSampleSize());
+        }
+        while (true) {
+            if (log.isDebugEnabled()) {
+                log.debug("window " + reader.length() + " bytes");
+            }
+            try {
+                return extractMetadata(dataSourceName, datasetName,
+                        reader.decode(options.getCharset()), sampleSize);
+            } catch (ExtractionException e) {
+                if (reader.isEof() || window >= maxWindow) {
+                    throw e;
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Inconclusive, growing window: " + e.getMessage());
+                }
+                window = (int) Math.min((long) window * 2, maxWindow);
+                reader.fill(window);
+            }
+        }
+    }
+
+    /**
+     * Extracts metadata from the decompressed contents of in. From an
+     * archive, the first entry that is a non-empty file, and not hidden,
+     * is read; entries before it are skipped without being parsed.
+     *
+     * @param in (InputStream) compressed file contents, not closed
+     * @param format (FormatDetector.Format) a compressed format
+     * @return (DatasetInfo) with the compression type of the file
+     */
+    private DatasetInfo extractCompressedMetadata(String dataSourceName, String datasetName, InputStream in,
+                                                  FormatDetector.Format format, ExtractionOptions options)
+            throws ExtractionException, IOException {
+        if (log.isDebugEnabled()) {
+            log.debug("Reading " + format + " compressed stream");
+        }
+        CompressionType compressionType = format.getCompressionType();
+
+        // the decompressing stream is closed to free its inflater, but
+        // the caller's stream must stay open
+        InputStream shielded = new CloseShieldInputStream(in);
+        DatasetInfo datasetInfo;
+        switch (format) {
+            case GZIP:
+                InputStream gz = new GZIPInputStream(shielded);
+                try {
+                    datasetInfo = extractMetadata(dataSourceName, datasetName, gz, options);
+                } finally {
+                    gz.close();
+                }
+                if (CompressionType.TAR.toString().equals(datasetInfo.getCompressionType())) {
+                    compressionType = CompressionType.TAR_GZ;
+                }
+                break;
+
+            case ZIP:
+                ZipInputStream zip = new ZipInputStream(shielded);
+                try {
+                    ZipEntry entry;
+                    while ((entry = zip.getNextEntry()) != null) {
+                        if (!entry.isDirectory() && entry.getSize() != 0 && !isHiddenEntry(entry.getName())) {
+                            break;
+                        }
+                    }
+                    if (entry == null) {
+                        throw new ExtractionException("No file found in zip archive");
+                    }
+                    if (log.isDebugEnabled()) {
+                        log.debug("Reading entry " + entry.getName());
+                    }
+                    datasetInfo = extractMetadata(dataSourceName, datasetName, zip, options);
+                } finally {
+                    zip.close();
+                }
+                break;
+
+            case TAR:
+                TarReader tar = new TarReader(shielded);
+                boolean found = false;
+                while (tar.next()) {
+                    if (tar.isFile() && tar.getSize() > 0 && !isHiddenEntry(tar.getName())) {
+                        found = true;
+                        break;
+                    }
+                }
+                if (!found) {
+                    throw new ExtractionException("No file found in tar archive");
+                }
+                if (log.isDebugEnabled()) {
+                    log.debug("Reading entry " + tar.getName());
+                }
+                datasetInfo = extractMetadata(dataSourceName, datasetName, tar.getInputStream(), options);
+                break;
+
+            default:
+                throw new ExtractionException("Unsupported compression: " + compressionType);
+        }
+        datasetInfo.setCompressionType(compressionType.toString());
+        return datasetInfo;
+    }
+
+    private static boolean isHiddenEntry(String name) {
+        // e.g. .DS_Store, or the resource forks macOS adds to a zip
+        String filename = name.substring(name.lastIndexOf('/') + 1);
+        return filename.startsWith(".") || name.startsWith("__MACOSX/");
+    }
+
+    private static JsonParser createJsonParser(InputStream in, Charset charset) throws IOException {
+        // the parser must not close the caller's stream
+        JsonFactory factory = new JsonFactory();
+        factory.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        return factory.createParser(new InputStreamReader(in, charset));
+    }
+
+    private DatasetInfo extractMetadata(String dataSourceName, String datasetName, String data,
+                                        int maxSampleSize)
             throws ExtractionException, IOException {
         if (log.isDebugEnabled()) {
             log.debug("Extracting metadata");
         }
-        Pattern startJsonFilePattern = Pattern.compile("^\\s*[\\[\\{]", Pattern.MULTILINE);
-        Matcher matcher = startJsonFilePattern.matcher(data);
-        if (matcher.find()) {
+        FormatDetector.Format format = FormatDetector.detect(data);
+        checkSupported(format);
+        if (format.isJson()) {
             if (log.isDebugEnabled()) {
                 log.debug("Reading JSON");
             }
-            return readJsonSample(datasetName, data);
+            return readJsonSample(dataSourceName, datasetName, new JsonFactory().createParser(data),
+                    ExtractionOptions.DEFAULT_JSON_SAMPLE_SIZE);
         }
         if (log.isDebugEnabled()) {
             log.debug("Reading delimited");
@@ -136,39 +519,178 @@ public class FileServiceImpl implements FileService {
         data = data.replaceAll("^\\s+", "");
 
         LinesContainer lc = readLines(data);
-        String[] lines = lc.lines;
         String lineEnding = lc.lineEnding;
 
         if (log.isDebugEnabled()) {
             log.debug("line ending [" + StringEscapeUtils.escapeJava(lineEnding) + "]");
         }
 
+        RecordTypeClusterer.RecordTypes recordTypes =
+                RecordTypeClusterer.cluster(data, lc, RecordSplitter.DEFAULT_QUOTE, maxSampleSize);
+        if (recordTypes != null) {
+            return extractMultiRecordMetadata(dataSourceName, datasetName, recordTypes);
+        }
+
         FileParameters fileParameters = sniff(data, lineEnding);
 
+        if (fileParameters == null || !isPlausibleDelimiter(fileParameters.getColumnDelimiter())) {
+            int[] widths = FixedWidthDetector.detect(data, lc, MAX_FIXED_WIDTH_LINES);
+            if (widths != null) {
+                return extractFixedWidthMetadata(dataSourceName, datasetName, lc, widths, maxSampleSize);
+            }
+        }
+
         if (fileParameters == null) {
             throw new ExtractionException("Could not determine file parameters");
         }
 
-        int sampleSize = Math.min(MAX_SAMPLE_SIZE, lines.length);
+        if (!memberOf(new String[]{"\n", "\r\n", "\r"}, lineEnding)) {
+            data = data.replace("\n", "\\n").replace("\r", "\\r").replace(lineEnding, "\n");
+        }
+
+        RowsContainer rc = readRows(data, fileParameters, maxSampleSize);
+        return getDatasetInfo(dataSourceName, datasetName, FileType.DELIMITED, fileParameters, rc, true);
+    }
+
+    /**
+     * A delimiter guessed from a fixed-width file is typically a space, or
+     * a letter or digit that happens to recur at a regular rate.
+     */
+    private static boolean isPlausibleDelimiter(String delimiter) {
+        if (delimiter.isEmpty() || delimiter.equals(" ")) {
+            return false;
+        }
+        for (int i = 0; i < delimiter.length(); i++) {
+            if (Character.isLetterOrDigit(delimiter.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
+    }
 
+    private DatasetInfo extractFixedWidthMetadata(String dataSourceName, String datasetName, LinesContainer lc,
+                                                  int[] widths, int maxSampleSize) {
         if (log.isDebugEnabled()) {
-            log.debug("sample size: " + sampleSize);
+            log.debug("Reading fixed width " + Arrays.toString(widths));
+        }
+        FileParameters fileParameters = new FileParameters("", false);
+        fileParameters.setColumnWidths(widths);
+        List<String[]> rowList = new ArrayList<>();
+        for (int i = 0; i < lc.size() && rowList.size() < maxSampleSize; i++) {
+            if (lc.length(i) > 0) {
+                rowList.add(FixedWidthDetector.split(lc.get(i), widths));
+            }
         }
+        String[][] rows = rowList.toArray(new String[rowList.size()][]);
+        return getDatasetInfo(dataSourceName, datasetName, FileType.FIXED, fileParameters,
+                new RowsContainer(rows, widths.length), true);
+    }
 
-        char quotechar = getQuoteChar(fileParameters.getTextQualifier());
+    /**
+     * Infers a schema for each record type. The result has the columns of
+     * the most frequent type, typically the detail record, and a
+     * FileDataset with a Record for every type.
+     *
+     * The types are read on the calling thread, as the sample of each is
+     * small, and a caller such as BatchExtractor already runs files in
+     * parallel.
+     */
+    private DatasetInfo extractMultiRecordMetadata(String dataSourceName, String datasetName,
+                                                   RecordTypeClusterer.RecordTypes recordTypes)
+            throws IOException {
+        List<RecordTypeClusterer.RecordType> types = recordTypes.types;
+        if (log.isDebugEnabled()) {
+            log.debug("Reading " + types.size() + " record types, delimiter [" + recordTypes.delimiter + "]");
+        }
+        List<DatasetInfo> infos = new ArrayList<>(types.size());
+        for (RecordTypeClusterer.RecordType type : types) {
+            infos.add(extractRecordMetadata(dataSourceName, datasetName, recordTypes.delimiter, type));
+        }
+
+        FileDataSource fileDataSource = new FileDataSource();
+        fileDataSource.setName(datasetName);
+        fileDataSource.setFilepath(datasetName);
+        fileDataSource.setFilenamePattern(datasetName);
+        FileDataset fileDataset = new FileDataset();
+        fileDataset.setName(datasetName);
+        fileDataset.setDataSource(fileDataSource);
+        fileDataset.setFileType(FileType.MULTIRECORD);
+        fileDataset.setMultiRecordset(true);
+        fileDataset.setColumnDelimiter(recordTypes.delimiter);
+        fileDataset.setTextQualifier(String.valueOf(RecordSplitter.DEFAULT_QUOTE));
+        fileDataset.setBatch(true);
+
+        Map<String, ValueType> valueTypeMap = getValueTypeMap();
+        Map<String, DataType> dataTypeMap = getDataTypeMap();
+        List<Record> records = new ArrayList<>();
+        DatasetInfo main = null;
+        int mainCount = 0;
+        for (int i = 0; i < types.size(); i++) {
+            RecordTypeClusterer.RecordType type = types.get(i);
+            DatasetInfo info = infos.get(i);
+            Record record = new Record();
+            record.setName(type.code);
+            record.setPrefix(type.code);
+            record.setDescription("Automatically created from import of " + datasetName);
+            record.setDataset(fileDataset);
+            List<FileColumn> fileColumns = new ArrayList<>();
+            for (ColumnInfo column : info.getColumns()) {
+                FileColumn fileColumn = new FileColumn();
+                fileColumn.setName(column.getName());
+                fileColumn.setDescription("Automatically created from import of " + datasetName);
+                fileColumn.setDataset(fileDataset);
+                fileColumn.setRecord(record);
+                fileColumn.setColumnIndex(column.getColumnIndex());
+                fileColumn.setValueType(valueTypeMap.get(column.getType()));
+                fileColumn.setDataType(dataTypeMap.get(column.getSqlType()));
+                fileColumn.setLength(column.getLength());
+                fileColumns.add(fileColumn);
+            }
+            record.setColumns(fileColumns);
+            records.add(record);
+            if (type.count > mainCount) {
+                main = info;
+                mainCount = type.count;
+            }
+        }
+        fileDataset.setRecords(records);
 
-        if (!memberOf(new String[]{"\n", "\r\n", "\r"}, lineEnding)) {
-            data = data.replace("\n", "\\n").replace("\r", "\\r").replace(lineEnding, "\n");
+        main.setFileType(FileType.MULTIRECORD.toString());
+        main.setFileDataset(fileDataset);
+        return main;
+    }
+
+    private DatasetInfo extractRecordMetadata(String dataSourceName, String datasetName, String delimiter,
+                                              RecordTypeClusterer.RecordType type) throws IOException {
+        CSVParser parser = new CSVParser(delimiter, RecordSplitter.DEFAULT_QUOTE);
+        int maxNumberColumns = 0;
+        String[][] rows = new String[type.lines.size()][];
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = parser.parseLine(type.lines.get(i));
+            maxNumberColumns = Math.max(maxNumberColumns, rows[i].length);
         }
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = Arrays.copyOf(rows[i], maxNumberColumns);
+        }
+        FileParameters fileParameters = new FileParameters(String.valueOf(RecordSplitter.DEFAULT_QUOTE), false,
+                delimiter, false);
 
-        CSVParser parser = new CSVParser(fileParameters.getColumnDelimiter(), quotechar);
-        CSVReader reader = new CSVReader(new StringReader(data), 0, parser);
+        // the header of a multi-record file is a record type of its own
+        return getDatasetInfo(dataSourceName, datasetName, FileType.DELIMITED, fileParameters,
+                new RowsContainer(rows, maxNumberColumns), false);
+    }
 
-        RowsContainer rc = readRows(reader, sampleSize);
+    private DatasetInfo getDatasetInfo(String dataSourceName, String datasetName, FileType fileType,
+                                       FileParameters fileParameters, RowsContainer rc, boolean detectHeader) {
         String[][] rows = rc.rows;
         int maxNumberColumns = rc.maxNumberColumns;
+        int sampleSize = rows.length;
 
-        boolean hasHeader = hasHeader(rows);
+        if (log.isDebugEnabled()) {
+            log.debug("sample size: " + sampleSize);
+        }
+
+        boolean hasHeader = detectHeader && hasHeader(rows);
         fileParameters.setHeader(hasHeader);
 
         if (log.isDebugEnabled()) {
@@ -190,11 +712,13 @@ public class FileServiceImpl implements FileService {
         datasetInfo.setSsuDesignation("nonsp");
         datasetInfo.setDataSourceName(dataSourceName);
         datasetInfo.setName(datasetName);
-        datasetInfo.setFileType(FileType.DELIMITED.toString());
+        datasetInfo.setFileType(fileType.toString());
         List<ColumnInfo> columns = new ArrayList<ColumnInfo>();
         for (int i = 0; i < header.length; i++) {
-            columns.add(new ColumnInfo(header[i], i + 1, types[i].toString(),
-                    sqlTypes[i].toString(), lengths[i]));
+            ColumnInfo column = new ColumnInfo(header[i], i + 1, types[i].toString(),
+                    sqlTypes[i].toString(), lengths[i]);
+            column.setProfile(tc.profiles[i]);
+            columns.add(column);
         }
         datasetInfo.setColumns(columns);
         fileParameters.setSrcFormats(getSrcFormats(columns, tc));
@@ -240,90 +764,76 @@ public class FileServiceImpl implements FileService {
     }
 
     /**
-     * urrgh.. the following is dense. I'd use Java 8 if I could be sure of
-     * compatibility, or Scala if I could.
+     * Checks every record of a delimited file against the metadata
+     * extracted from a sample of it, reading chunks of the file in parallel.
+     *
+     * @param path (Path) a delimited, uncompressed file
+     * @param datasetInfo (DatasetInfo) as returned by extractMetadata
+     * @return (ValidationResult) number of records, and the records and
+     *         values that do not fit
+     */
+    public ValidationResult validate(Path path, DatasetInfo datasetInfo) throws ExtractionException, IOException {
+        return new FileValidator(this, Runtime.getRuntime().availableProcessors()).validate(path, datasetInfo);
+    }
+
+    /**
+     * Counts the records of a delimited file, reading parts of it in
+     * parallel. A line ending inside a quoted field does not end a record.
+     *
+     * @param path (Path) a delimited, uncompressed file
+     * @param fileParameters (FileParameters) as extracted from a sample of the file
+     * @return (long) number of records, not counting a header or blank lines
+     */
+    public long countRecords(Path path, FileParameters fileParameters) throws IOException {
+        int numThreads = Runtime.getRuntime().availableProcessors();
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            try {
+                long rangeSize = DelimitedSplitter.getRangeSize(channel.size(), numThreads);
+                long numRecords = new DelimitedSplitter(fileParameters).split(channel, rangeSize, executor).numRecords;
+                return (fileParameters.hasHeader() && numRecords > 0) ? numRecords - 1 : numRecords;
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * Looks for a multi-character delimiter (e.g. "||" or "~|~"), using the
+     * same meta-frequency approach as guessDelimiter, applied to the
+     * n-grams of 2 to 5 characters that repeat on a line.
      *
      * @param data (str) sample file as string
-     * @return (DatasetInfo)
+     * @return (FileParameters)
      */
     public FileParameters findMultiCharSequences(String data, String lineEnding) {
-        String[] rows = data.split(lineEnding);
+        String[] rows = RecordSplitter.split(data, lineEnding, RecordSplitter.DEFAULT_QUOTE);
         int chunkLength = Math.min(10, rows.length);
         int iteration = 0;
-        Map<String, Map<Integer, Integer>> strFrequency = new HashMap<>();
-        Map<String, Integer[]> modes = new HashMap<>();
-        Map<String, Integer[]> delims = new HashMap<>();
-        String delim;
-        boolean skipInitialSpace;
+        NGramCounter counter = new NGramCounter();
+        int[] modeFreq = new int[0];
+        int[] modeScore = new int[0];
+        int[] delims = new int[0];
+        int numDelims = 0;
         int start = 0;
         int end = Math.min(chunkLength, rows.length);
-        int slidingWindow = 5;
-        ObjectMapper mapper = new ObjectMapper();
         while (start < rows.length) {
             iteration += 1;
-            for (String line : Arrays.asList(rows).subList(start, end)) {
-                Map<String, Integer> counts = new HashMap<>();
-                for (int w = 2; w <= slidingWindow; w++) {
-                    for (int i = 0; i <= line.length() - w; i++) {
-                        String str = line.substring(i, i + w);
-                        if (counts.containsKey(str)) {
-                            counts.put(str, counts.get(str) + 1);
-                        } else {
-                            counts.put(str, 1);
-                        }
-                    }
-                }
-                for (Map.Entry<String, Integer> entry : counts.entrySet()) {
-                    if (entry.getValue() > 1) {
-                        Map<Integer, Integer> metaFrequency;
-                        if (strFrequency.containsKey(entry.getKey())) {
-                            metaFrequency = strFrequency.get(entry.getKey());
-                        } else {
-                            metaFrequency = new HashMap<>();
-                        }
-                        int value = 0;
-                        if (metaFrequency.containsKey(entry.getValue())) {
-                            value = metaFrequency.get(entry.getValue());
-                        }
-                        metaFrequency.put(entry.getValue(), value + 1);
-                        //Map<Integer, Integer> metaFrequency = strFrequency.getOrDefault(entry.getKey(), new HashMap<Integer, Integer>());
-                        //metaFrequency.put(entry.getValue(), metaFrequency.getOrDefault(entry.getValue(), 0) + 1);
-                        strFrequency.put(entry.getKey(), metaFrequency);
-                    }
-                }
+            for (int r = start; r < end; r++) {
+                counter.addLine(rows[r]);
             }
-            for (Map.Entry<String, Map<Integer, Integer>> entry : strFrequency.entrySet()) {
-                Map<Integer, Integer> metaFrequency = entry.getValue();
-                if (!(metaFrequency.size() == 1 && metaFrequency.containsKey(0))) {
-                    if (metaFrequency.size() > 0) {
-                        Map.Entry<Integer, Integer> maxItem = null;
-                        for (Map.Entry<Integer, Integer> item : metaFrequency.entrySet()) {
-                            if (maxItem == null || item.getValue() > maxItem.getValue()) {
-                                maxItem = item;
-                            }
-                        }
-                        int sumOtherFreqs = 0;
-                        Integer maxFreq = (maxItem == null ? null : maxItem.getKey());
-                        Integer maxFreqVal = (maxItem == null ? 0 : maxItem.getValue());
-                        for (Map.Entry<Integer, Integer> item : metaFrequency.entrySet()) {
-                            if (!item.getKey().equals(maxFreq)) {
-                                sumOtherFreqs += item.getValue();
-                            }
-                        }
-                        modes.put(entry.getKey(), new Integer[] { maxFreq, maxFreqVal - sumOtherFreqs });
-                    } else {
-                        Map.Entry<Integer, Integer> it = metaFrequency.entrySet().iterator().next();
-                        modes.put(entry.getKey(), new Integer[] { it.getKey(), it.getValue() });
-                    }
-                }
+            int numGrams = counter.size();
+            if (modeFreq.length < numGrams) {
+                modeFreq = new int[numGrams];
+                modeScore = new int[numGrams];
             }
+            counter.modes(modeFreq, modeScore);
             int total = chunkLength * iteration;
             if (log.isDebugEnabled()) {
-                try {
-                    log.debug(mapper.writeValueAsString(modes));
-                } catch (JsonProcessingException e) {
-                    // ignore
-                }
+                log.debug(nGramModesToString(counter, modeFreq, modeScore));
             }
             // (rows of consistent data) / (number of rows) = 100%
             double consistency = 1.0;
@@ -331,27 +841,22 @@ public class FileServiceImpl implements FileService {
             // minimum consistency threshold
             double threshold = 0.9;
 
-            while (delims.isEmpty() && consistency >= threshold) {
-                for (Map.Entry<String, Integer[]> entry : modes.entrySet()) {
-                    Integer[] v = entry.getValue();
-                    if (v[0] > 0 && v[1] > 0) {
-                        if ((v[1] / total) >= consistency) {
-                            delims.put(entry.getKey(), v);
+            while (numDelims == 0 && consistency >= threshold) {
+                for (int id = 0; id < numGrams; id++) {
+                    if (modeFreq[id] > 0 && modeScore[id] > 0) {
+                        if ((modeScore[id] / total) >= consistency) {
+                            if (numDelims == delims.length) {
+                                delims = Arrays.copyOf(delims, Math.max(4, numDelims * 2));
+                            }
+                            delims[numDelims++] = id;
                         }
                     }
                 }
                 consistency -= 0.01;
             }
-            if (delims.size() == 1) {
-                delim = delims.keySet().iterator().next();
-                String firstLine = rows[0];
-                int delimCount = countSubstring(firstLine, delim);
-                Pattern p = Pattern.compile(delim + " ");
-                Matcher m = p.matcher(firstLine);
-                int delimWithSpaceCount = 0;
-                while (m.find()) delimWithSpaceCount++;
-                skipInitialSpace = (delimCount == delimWithSpaceCount);
-                return new FileParameters(delim, skipInitialSpace);
+            if (numDelims == 1) {
+                String delim = counter.gram(delims[0]);
+                return new FileParameters(delim, isSkipInitialSpace(rows[0], delim));
             }
 
             // analyze another chunkLength lines
@@ -359,49 +864,66 @@ public class FileServiceImpl implements FileService {
             end += chunkLength;
             end = Math.min(end, rows.length);
         }
-        if (delims.isEmpty()) {
+        if (numDelims == 0) {
             return new FileParameters();
         }
 
-        // if there's more than one, fall back to a 'preferred' list
-        for (Character ch : preferredColumnDelimiters) {
-            String del = ch.toString();
-            if (delims.keySet().contains(del)) {
-                String firstLine = rows[0];
-                int delimCount = countSubstring(firstLine, del);
-                Pattern p = Pattern.compile(del + " ");
-                Matcher m = p.matcher(firstLine);
-                int delimWithSpaceCount = 0;
-                while (m.find()) delimWithSpaceCount++;
-                skipInitialSpace = (delimCount == delimWithSpaceCount);
-                return new FileParameters(del, skipInitialSpace);
+        // nothing else indicates a preference, pick the sequence that
+        // dominates(?). Repeated words in the data can score as well as the
+        // delimiter, so prefer sequences without letters or digits. Shorter
+        // sequences contained in a delimiter such as "~|~" score the same as
+        // the delimiter, so then prefer the longest.
+        int best = -1;
+        boolean bestIsSymbolic = false;
+        for (int k = 0; k < numDelims; k++) {
+            int id = delims[k];
+            boolean isSymbolic = !hasLetterOrDigit(counter.gram(id));
+            if (best == -1 || modeFreq[id] > modeFreq[best] ||
+                    (modeFreq[id] == modeFreq[best] && isSymbolic && !bestIsSymbolic) ||
+                    (modeFreq[id] == modeFreq[best] && isSymbolic == bestIsSymbolic &&
+                            counter.length(id) > counter.length(best))) {
+                best = id;
+                bestIsSymbolic = isSymbolic;
             }
         }
-        if (log.isDebugEnabled()) {
-            try {
-                log.debug(mapper.writeValueAsString(delims));
-            } catch (JsonProcessingException e) {
-                // ignore
+        String delim = counter.gram(best);
+        return new FileParameters(delim, isSkipInitialSpace(rows[0], delim));
+    }
+
+    private static boolean hasLetterOrDigit(String str) {
+        for (int i = 0; i < str.length(); i++) {
+            if (Character.isLetterOrDigit(str.charAt(i))) {
+                return true;
             }
         }
+        return false;
+    }
 
-        // nothing else indicates a preference, pick the character that
-        // dominates(?)
-        Map.Entry<String, Integer[]> maxEntry = null;
-        for (Map.Entry<String, Integer[]> entry : delims.entrySet()) {
-            if (maxEntry == null || entry.getValue()[0] > maxEntry.getValue()[0]) {
-                maxEntry = entry;
+    private static boolean isSkipInitialSpace(String line, String delim) {
+        int delimCount = 0;
+        int delimWithSpaceCount = 0;
+        int i = line.indexOf(delim);
+        while (i >= 0) {
+            delimCount += 1;
+            i += delim.length();
+            if (i < line.length() && line.charAt(i) == ' ') {
+                delimWithSpaceCount += 1;
             }
+            i = line.indexOf(delim, i);
         }
-        delim = maxEntry.getKey();
-        String firstLine = rows[0];
-        int delimCount = countSubstring(firstLine, delim);
-        Pattern p = Pattern.compile(delim + " ");
-        Matcher m = p.matcher(firstLine);
-        int delimWithSpaceCount = 0;
-        while (m.find()) delimWithSpaceCount++;
-        skipInitialSpace = (delimCount == delimWithSpaceCount);
-        return new FileParameters(delim, skipInitialSpace);
+        return delimCount == delimWithSpaceCount;
+    }
+
+    private static String nGramModesToString(NGramCounter counter, int[] modeFreq, int[] modeScore) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int id = 0; id < counter.size(); id++) {
+            if (id > 0) {
+                sb.append(',');
+            }
+            sb.append('"').append(StringEscapeUtils.escapeJava(counter.gram(id))).append("\":[")
+                    .append(modeFreq[id]).append(',').append(modeScore[id]).append(']');
+        }
+        return sb.append('}').toString();
     }
 
     public static String[] STRING_TYPES = {"STRING", "VARCHAR", "NVARCHAR", "TEXT"};
@@ -414,68 +936,24 @@ public class FileServiceImpl implements FileService {
     public static String[] IP_ADDRESS = {"ip_address", "ip_addr", "ip", "ipv4", "ipv6"};
 
     public void generateDataFromDDL(String ddl, int numRows) throws IOException {
-        Faker faker = new Faker();
-        List<TableElement> tables = new MysqlDDLParser().parse(ddl);
-        TableElement table = tables.get(0);
-        String datasetName = table.getTableName().toString();
-        int numCols = table.getColumns().size();
-        String[][] columns = new String[numCols][numRows];
-        String[] header = new String[numCols];
-        int j = 0;
-        for (ColumnElement column : table.getColumns()) {
-            String columnName = column.getColumnName().toString().toLowerCase();
-            header[j] = columnName;
-            String columnType = column.getType().name();
-            String[] values = new String[numRows];
-            for (int i = 0; i < numRows; i++) {
-                if (memberOf(INT_TYPES, columnType)) {
-                    values[i] = String.valueOf(faker.number().numberBetween(0, 1000));
-                } else if (memberOf(FLOAT_TYPES, columnType)) {
-                    values[i] = String.valueOf(faker.number().randomDouble(2, 0, 1000));
-                } else if (memberOf(DATE_TYPES, columnType)) {
-                    values[i] = faker.date().toString();
-                } else {
-                    if (columnName.endsWith("id")) {
-                        values[i] = faker.crypto().md5();
-                    } else if (memberOf(FIRST_NAMES, columnName)) {
-                        values[i] = faker.name().firstName();
-                    } else if (memberOf(LAST_NAMES, columnName)) {
-                        values[i] = faker.name().lastName();
-                    } else if (memberOf(FULL_NAMES, columnName)) {
-                        values[i] = faker.name().fullName();
-                    } else if (columnName.contains("email")) {
-                        values[i] = faker.internet().emailAddress();
-                    } else if (columnName.contains("url")) {
-                        values[i] = faker.internet().url();
-                    } else if (memberOf(IP_ADDRESS, columnName)) {
-                        values[i] = faker.internet().ipV4Address();
-                    } else {
-                        values[i] = faker.lorem().characters(5, 10);
-                    }
-                }
-            }
-            columns[j] = values;
-            j += 1;
-        }
-        String[][] rows = transposeColumnArray(columns);
-        CSVWriter writer = new CSVWriter(new FileWriter(datasetName + ".csv"));
-        writer.writeNext(header);
-        for (String[] row : rows) {
-            writer.writeNext(row);
-        }
-        writer.close();
+        TableElement table = new MysqlDDLParser().parse(ddl).get(0);
+        String datasetName = DataGenerator.getSymbolName(table.getTableName());
+        DataGenerator.writeRows(table, new Faker(), numRows, Paths.get(datasetName + ".csv"), false);
     }
 
-    private String[][] transposeColumnArray(String[][] columns) {
-        int numCols = columns.length;
-        int numRows = columns[0].length;
-        String[][] rows = new String[numRows][numCols];
-        for (int i = 0; i < numCols; i++) {
-            for (int j = 0; j < numRows; j++) {
-                rows[j][i] = columns[i][j];
-            }
-        }
-        return rows;
+    /**
+     * Generates rows for the first table in ddl, writing each row as it is
+     * produced, so memory use does not depend on numRows. See
+     * DataGenerator for every table, in parallel.
+     *
+     * @param ddl (String) CREATE TABLE statement
+     * @param numRows (long) number of rows, not counting the header
+     * @param path (Path) output file
+     * @param gzip (boolean) compress the output
+     */
+    public void generateDataFromDDL(String ddl, long numRows, Path path, boolean gzip) throws IOException {
+        TableElement table = new MysqlDDLParser().parse(ddl).get(0);
+        DataGenerator.writeRows(table, new Faker(), numRows, path, gzip);
     }
 
     private Map<String, DataType> getDataTypeMap() {
@@ -518,52 +996,7 @@ public class FileServiceImpl implements FileService {
         return getHeader(data, types, hasHeader);
     }
 
-    private double getLineLengthVariance(String[] lines, double mean) {
-        if (lines.length == 0) return 0;
-        double temp = 0.0;
-        for (String line : lines) {
-            temp += (mean - line.length()) * (mean - line.length());
-        }
-        return temp / lines.length;
-    }
-
-    private double getMeanLineLength(String[] lines) {
-        if (lines.length == 0) return 0;
-        double sum = 0.0;
-        for (String line : lines) {
-            sum += line.length();
-        }
-        return sum / lines.length;
-    }
-
-    private double getModeLineLength(String[] lines) {
-        if (lines.length == 0) return 0;
-        int modeCount = 0;
-        int mode = 0;
-        int currCount = 0;
-
-        for (String line : lines) {
-            // Reset the number of times we have seen the current value
-            currCount = 0;
-
-            // Iterate through the array counting the number of times we see the current candidate mode
-            for (String ln : lines) {
-                // If they match, increment the current count
-                if (line.length() == ln.length()) {
-                    currCount++;
-                }
-            }
-            // We only save this candidate mode, if its count is greater than the current mode
-            // we have stored in the "mode" variable
-            if (currCount > modeCount) {
-                modeCount = currCount;
-                mode = line.length();
-            }
-        }
-        return mode;
-    }
-
-    private static char getQuoteChar(String textQualifier) {
+    static char getQuoteChar(String textQualifier) {
         return textQualifier == null || textQualifier.trim().isEmpty() ?
                 CSVParser.DEFAULT_QUOTE_CHARACTER : textQualifier.charAt(0);
     }
@@ -582,6 +1015,10 @@ public class FileServiceImpl implements FileService {
                 return DataTypes.TIMESTAMP;
             case TEXT:
                 return DataTypes.TEXT;
+            case OBJECT:
+                return DataTypes.STRUCT;
+            case ARRAY:
+                return DataTypes.ARRAY;
             default:
                 return DataTypes.NVARCHAR;
         }
@@ -617,13 +1054,20 @@ public class FileServiceImpl implements FileService {
         TypeInfo[] types = new TypeInfo[maxNumberColumns];
         DataTypes[] sqlTypes = new DataTypes[maxNumberColumns];
         int[] lengths = new int[maxNumberColumns];
+        DateParser.FormatStats[] dateStats = new DateParser.FormatStats[maxNumberColumns];
+        ColumnProfile[] profiles = new ColumnProfile[maxNumberColumns];
+        for (int j = 0; j < maxNumberColumns; j++) {
+            dateStats[j] = dateParser.newStats();
+            profiles[j] = new ColumnProfile();
+        }
 
         int start = hasHeader ? 1 : 0;
         for (int i = start; i < sampleSize; i++) {
             String[] sampleRow = rows[i];
             for (int j = 0; j < maxNumberColumns; j++) {
-                TypeInfo type = deduceDataType(sampleRow[j]);
-                if (types[j] == null) {
+                TypeInfo type = deduceDataType(sampleRow[j], dateStats[j]);
+                if (types[j] == null || ValueTypes.NONE.equals(types[j].getType())) {
+                    // an empty value doesn't decide the type of a column
                     types[j] = type;
                     sqlTypes[j] = getSqlType(type.getType());
                 } else {
@@ -631,16 +1075,28 @@ public class FileServiceImpl implements FileService {
                         if (typeHierarchy.indexOf(type.getType()) > typeHierarchy.indexOf(types[j].getType())) {
                             types[j] = type;
                             sqlTypes[j] = getSqlType(type.getType());
+                        } else if (ValueTypes.DATE.equals(type.getType())) {
+                            // take the latest format, as a later value may settle an
+                            // ambiguous one, e.g. 9/25/05 after 1/2/09
+                            types[j] = type;
                         }
                     }
                 }
-                int len = sampleRow[j].length();
+                int len = (sampleRow[j] == null) ? 0 : sampleRow[j].length();
                 if (len > lengths[j]) {
                     lengths[j] = len;
                 }
+                profiles[j].add(sampleRow[j]);
+            }
+        }
+        for (int j = 0; j < maxNumberColumns; j++) {
+            TypeInfo type = types[j];
+            if (type != null && ValueTypes.DATE.equals(type.getType())) {
+                profiles[j].setDateFormat((String) type.getInfo().get("format"));
             }
+            profiles[j].finish();
         }
-        return new TypesContainer(types, sqlTypes, lengths);
+        return new TypesContainer(types, sqlTypes, lengths, profiles);
     }
 
     public TypesContainer getTypes(List<List<String>> rows, int sampleSize, int maxNumberColumns, boolean hasHeader) {
@@ -684,13 +1140,7 @@ public class FileServiceImpl implements FileService {
      * @return metastore.models.FileParameters
      */
     public FileParameters guessDelimiter(String data, String lineEnding) {
-        ObjectMapper mapper = new ObjectMapper();
-        String[] rows = data.split(lineEnding);
-        // Check in the two-byte UTF8 range
-        Character[] cs = new Character[2048];
-        for (int i = 0; i < 2048; i++) {
-            cs[i] = (char)i;
-        }
+        String[] rows = RecordSplitter.split(data, lineEnding, RecordSplitter.DEFAULT_QUOTE);
 
         int chunkLength = Math.min(10, rows.length);
         if (log.isDebugEnabled()) {
@@ -698,59 +1148,75 @@ public class FileServiceImpl implements FileService {
             log.debug("chunkLength " + chunkLength);
         }
         int iteration = 0;
-        Map<Character, Map<Integer, Integer>> charFrequency = new HashMap<>();
-        Map<Character, Integer[]> modes = new HashMap<>();
-        Map<Character, Integer[]> delims = new HashMap<>();
-        Character delim;
-        boolean skipInitialSpace;
+
+        // frequency of each character on the current line
+        int[] lineFrequency = new int[DELIMITER_CHAR_RANGE];
+
+        // distinct characters seen on the current line, so only those are visited
+        char[] lineChars = new char[DELIMITER_CHAR_RANGE];
+
+        // meta-frequency: metaFrequency[ch][freq] = number of lines on which ch occurred
+        // freq (> 0) times. The number of lines with a frequency of zero is derived from
+        // linesWithChar so that absent characters cost nothing.
+        int[][] metaFrequency = new int[DELIMITER_CHAR_RANGE][];
+        int[] linesWithChar = new int[DELIMITER_CHAR_RANGE];
+        int linesRead = 0;
+
+        // mode of the meta-frequency, and how well each character meets it
+        int[] modeFreq = new int[DELIMITER_CHAR_RANGE];
+        int[] modeScore = new int[DELIMITER_CHAR_RANGE];
+
+        boolean[] delims = new boolean[DELIMITER_CHAR_RANGE];
+        int numDelims = 0;
         int start = 0;
         int end = Math.min(chunkLength, rows.length);
         while (start < rows.length) {
             iteration += 1;
-            for (String line : Arrays.asList(rows).subList(start, end)) {
-                //for (Character ch : ascii) {
-                for (Character ch : cs) {
-                    Map<Integer, Integer> metaFrequency;
-                    if (charFrequency.containsKey(ch)) {
-                        metaFrequency = charFrequency.get(ch);
-                    } else {
-                        metaFrequency = new HashMap<>();
+            for (int r = start; r < end; r++) {
+                String line = rows[r];
+                int numLineChars = 0;
+
+                // characters inside quoted fields can't be delimiters
+                RecordSplitter splitter = new RecordSplitter(RecordSplitter.DEFAULT_QUOTE);
+                for (int i = 0; i < line.length(); i++) {
+                    char ch = line.charAt(i);
+                    if (ch == splitter.getQuote()) {
+                        i = splitter.quote(line, i);
+                    } else if (!splitter.isInQuote() && ch < DELIMITER_CHAR_RANGE && lineFrequency[ch]++ == 0) {
+                        lineChars[numLineChars++] = ch;
                     }
-                    int freq = 0;
-                    for (int i = 0; i < line.length(); i++) {
-                        if (line.charAt(i) == ch) freq++;
-                    }
-                    if (metaFrequency.containsKey(freq)) {
-                        metaFrequency.put(freq, metaFrequency.get(freq) + 1);
-                    } else {
-                        metaFrequency.put(freq, 1);
+                }
+                for (int k = 0; k < numLineChars; k++) {
+                    char ch = lineChars[k];
+                    int freq = lineFrequency[ch];
+                    lineFrequency[ch] = 0;
+                    int[] mf = metaFrequency[ch];
+                    if (mf == null) {
+                        mf = metaFrequency[ch] = new int[Math.max(8, freq + 1)];
+                    } else if (freq >= mf.length) {
+                        mf = metaFrequency[ch] = Arrays.copyOf(mf, Math.max(mf.length * 2, freq + 1));
                     }
-                    charFrequency.put(ch, metaFrequency);
+                    mf[freq] += 1;
+                    linesWithChar[ch] += 1;
                 }
+                linesRead += 1;
             }
-            for (Map.Entry<Character, Map<Integer, Integer>> entry : charFrequency.entrySet()) {
-                Map<Integer, Integer> metaFrequency = entry.getValue();
-                if (!(metaFrequency.size() == 1 && metaFrequency.containsKey(0))) {
-                    if (metaFrequency.size() > 0) {
-                        Map.Entry<Integer, Integer> maxItem = null;
-                        for (Map.Entry<Integer, Integer> item : metaFrequency.entrySet()) {
-                            if (maxItem == null || item.getValue() > maxItem.getValue()) {
-                                maxItem = item;
-                            }
-                        }
-                        int sumOtherFreqs = 0;
-                        Integer maxFreq = (maxItem == null ? null : maxItem.getKey());
-                        Integer maxFreqVal = (maxItem == null ? 0 : maxItem.getValue());
-                        for (Map.Entry<Integer, Integer> item : metaFrequency.entrySet()) {
-                            if (!item.getKey().equals(maxFreq)) {
-                                sumOtherFreqs += item.getValue();
-                            }
+            for (int ch = 0; ch < DELIMITER_CHAR_RANGE; ch++) {
+                if (linesWithChar[ch] > 0) {
+                    int[] mf = metaFrequency[ch];
+
+                    // start with the lines on which the character does not occur
+                    int maxFreq = 0;
+                    int maxFreqVal = linesRead - linesWithChar[ch];
+                    for (int freq = 1; freq < mf.length; freq++) {
+                        if (mf[freq] > maxFreqVal) {
+                            maxFreq = freq;
+                            maxFreqVal = mf[freq];
                         }
-                        modes.put(entry.getKey(), new Integer[] { maxFreq, maxFreqVal - sumOtherFreqs });
-                    } else {
-                        Map.Entry<Integer, Integer> it = metaFrequency.entrySet().iterator().next();
-                        modes.put(entry.getKey(), new Integer[] { it.getKey(), it.getValue() });
                     }
+                    int sumOtherFreqs = linesRead - maxFreqVal;
+                    modeFreq[ch] = maxFreq;
+                    modeScore[ch] = maxFreqVal - sumOtherFreqs;
                 }
             }
             //int total = chunkLength * iteration;
@@ -758,11 +1224,7 @@ public class FileServiceImpl implements FileService {
 
             if (log.isDebugEnabled()) {
                 log.debug("modes:");
-                try {
-                    log.debug(mapper.writeValueAsString(modes));
-                } catch (JsonProcessingException e) {
-                    // ignore
-                }
+                log.debug(modesToString(linesWithChar, modeFreq, modeScore));
             }
 
             // (rows of consistent data) / (number of rows) = 100%
@@ -771,35 +1233,30 @@ public class FileServiceImpl implements FileService {
             // minimum consistency threshold
             double threshold = 0.9;
 
-            while (delims.isEmpty() && consistency >= threshold) {
-                for (Map.Entry<Character, Integer[]> entry : modes.entrySet()) {
-                    Integer[] v = entry.getValue();
-                    if (v[0] > 0 && v[1] > 0) {
+            while (numDelims == 0 && consistency >= threshold) {
+                for (int ch = 0; ch < DELIMITER_CHAR_RANGE; ch++) {
+                    if (linesWithChar[ch] > 0 && modeFreq[ch] > 0 && modeScore[ch] > 0) {
                         if (log.isDebugEnabled()) {
-                            log.debug(entry.getKey() + " " + v[1] + " / " + total + " = " + (v[1] / total) + " ~ " + consistency);
+                            log.debug((char) ch + " " + modeScore[ch] + " / " + total + " = " +
+                                    (modeScore[ch] / total) + " ~ " + consistency);
                         }
-                        if ((v[1] / total) >= consistency) {
-                            delims.put(entry.getKey(), v);
+                        if ((modeScore[ch] / total) >= consistency && !delims[ch]) {
+                            delims[ch] = true;
+                            numDelims += 1;
                         }
                     }
                 }
                 consistency -= 0.01;
             }
-            if (delims.size() == 1) {
-                delim = delims.keySet().iterator().next();
-                String firstLine = rows[0];
-                int delimCount = 0;
-                for (int i = 0; i < firstLine.length(); i++) {
-                    if (firstLine.charAt(i) == delim) {
-                        delimCount += 1;
+            if (numDelims == 1) {
+                char delim = 0;
+                for (int ch = 0; ch < DELIMITER_CHAR_RANGE; ch++) {
+                    if (delims[ch]) {
+                        delim = (char) ch;
+                        break;
                     }
                 }
-                Pattern p = Pattern.compile(delim + " ");
-                Matcher m = p.matcher(firstLine);
-                int delimWithSpaceCount = 0;
-                while (m.find()) delimWithSpaceCount++;
-                skipInitialSpace = (delimCount == delimWithSpaceCount);
-                return new FileParameters(delim.toString(), skipInitialSpace);
+                return new FileParameters(String.valueOf(delim), isSkipInitialSpace(rows[0], delim));
             }
 
             // analyze another chunkLength lines
@@ -807,59 +1264,71 @@ public class FileServiceImpl implements FileService {
             end += chunkLength;
             end = Math.min(end, rows.length);
         }
-        if (delims.isEmpty()) {
+        if (numDelims == 0) {
             return new FileParameters();
         }
 
         // if there's more than one, fall back to a 'preferred' list
-        for (Character ch : preferredColumnDelimiters) {
-            if (delims.keySet().contains(ch)) {
-                String firstLine = rows[0];
-                int delimCount = 0;
-                for (int i = 0; i < firstLine.length(); i++) {
-                    if (firstLine.charAt(i) == ch) {
-                        delimCount += 1;
-                    }
-                }
-                Pattern p = Pattern.compile(ch + " ");
-                Matcher m = p.matcher(firstLine);
-                int delimWithSpaceCount = 0;
-                while (m.find()) delimWithSpaceCount++;
-                skipInitialSpace = (delimCount == delimWithSpaceCount);
-                return new FileParameters(ch.toString(), skipInitialSpace);
+        for (char ch : preferredColumnDelimiters) {
+            if (delims[ch]) {
+                return new FileParameters(String.valueOf(ch), isSkipInitialSpace(rows[0], ch));
             }
         }
         if (log.isDebugEnabled()) {
             log.debug("delims:");
-            try {
-                log.debug(mapper.writeValueAsString(delims));
-            } catch (JsonProcessingException e) {
-                // ignore
-            }
+            log.debug(modesToString(delims, modeFreq, modeScore));
         }
 
         // nothing else indicates a preference, pick the character that
         // dominates(?)
-        Map.Entry<Character, Integer[]> maxEntry = null;
-        for (Map.Entry<Character, Integer[]> entry : delims.entrySet()) {
-            if (maxEntry == null || entry.getValue()[0] > maxEntry.getValue()[0]) {
-                maxEntry = entry;
+        int delim = -1;
+        for (int ch = 0; ch < DELIMITER_CHAR_RANGE; ch++) {
+            if (delims[ch] && (delim == -1 || modeFreq[ch] > modeFreq[delim])) {
+                delim = ch;
             }
         }
-        delim = maxEntry.getKey();
-        String firstLine = rows[0];
+        return new FileParameters(String.valueOf((char) delim), isSkipInitialSpace(rows[0], (char) delim));
+    }
+
+    /**
+     * skipInitialSpace holds if every occurrence of the delimiter on the
+     * line is followed by a space.
+     */
+    private static boolean isSkipInitialSpace(String line, char delim) {
         int delimCount = 0;
-        for (int i = 0; i < firstLine.length(); i++) {
-            if (firstLine.charAt(i) == delim) {
+        int delimWithSpaceCount = 0;
+        int n = line.length();
+        for (int i = 0; i < n; i++) {
+            if (line.charAt(i) == delim) {
                 delimCount += 1;
+                if (i + 1 < n && line.charAt(i + 1) == ' ') {
+                    delimWithSpaceCount += 1;
+                }
             }
         }
-        Pattern p = Pattern.compile(delim + " ");
-        Matcher m = p.matcher(firstLine);
-        int delimWithSpaceCount = 0;
-        while (m.find()) delimWithSpaceCount++;
-        skipInitialSpace = (delimCount == delimWithSpaceCount);
-        return new FileParameters(delim.toString(), skipInitialSpace);
+        return delimCount == delimWithSpaceCount;
+    }
+
+    private static String modesToString(int[] linesWithChar, int[] modeFreq, int[] modeScore) {
+        boolean[] include = new boolean[linesWithChar.length];
+        for (int ch = 0; ch < linesWithChar.length; ch++) {
+            include[ch] = linesWithChar[ch] > 0;
+        }
+        return modesToString(include, modeFreq, modeScore);
+    }
+
+    private static String modesToString(boolean[] include, int[] modeFreq, int[] modeScore) {
+        StringBuilder sb = new StringBuilder("{");
+        for (int ch = 0; ch < include.length; ch++) {
+            if (include[ch]) {
+                if (sb.length() > 1) {
+                    sb.append(',');
+                }
+                sb.append('"').append(StringEscapeUtils.escapeJava(String.valueOf((char) ch))).append("\":[")
+                        .append(modeFreq[ch]).append(',').append(modeScore[ch]).append(']');
+            }
+        }
+        return sb.append('}').toString();
     }
 
     /**
@@ -871,101 +1340,21 @@ public class FileServiceImpl implements FileService {
      *
      * The quote with the most wins, same with the delimiter. If there is
      * no textQualifier then the delimiter can't be determined this way.
+     * Every quoted field in the sample is counted, in a single linear scan
+     * (see QuoteScanner).
      *
      * @param data File data
      * @return metastore.models.FileParameters
      */
     public FileParameters guessQuoteAndDelimiter(String data, String lineEnding) {
-        String[] regexes = new String[] {
-                "(?<delim>[^\\w" + lineEnding + "\"']+)(?<space> ?)(?<quote>[\"']).*?(\\k<quote>)(\\k<delim>)",
-                "(?:^|" + lineEnding + ")(?<quote>[\"']).*?(\\k<quote>)(?<delim>[^\\w" + lineEnding + "\"']+)(?<space> ?)",
-                "(?:^|" + lineEnding + ")(?<quote>[\"']).*?(\\k<quote>)(?:$|" + lineEnding + ")"
-        };
-
-        // embedded construction flags        meanings
-        // flags
-        // (?i)     Pattern.CASE_INSENSITIVE  Enables case-insensitive matching.
-        // (?d)     Pattern.UNIX_LINES        Enables Unix lines mode.
-        // (?m)     Pattern.MULTILINE         Enables multi line mode.
-        // (?s)     Pattern.DOTALL            Enables "." to match line terminators.
-        // (?u)     Pattern.UNICODE_CASE      Enables Unicode-aware case folding.
-        // (?x)     Pattern.COMMENTS          Permits white space and comments in the pattern.
-        // ---      Pattern.CANON_EQ          Enables canonical equivalence.
-        //
-        Matcher matches = null;
-        boolean matchNotFound = true;
         if (log.isDebugEnabled()) {
-            log.debug("Matching quote patterns");
-        }
-        for (String regex : regexes) {
-            Pattern p = Pattern.compile(regex, Pattern.MULTILINE | Pattern.DOTALL);
-            matches = p.matcher(data);
-            if (matches.find(0)) {
-                matchNotFound = false;
-                break;
-            }
+            log.debug("Scanning for quoted fields");
         }
+        FileParameters params = new QuoteScanner(data, lineEnding).scan();
         if (log.isDebugEnabled()) {
-            log.debug("Match " + (matchNotFound ? "not found" : "found"));
-        }
-        if (matchNotFound) {
-            return new FileParameters();
+            log.debug("quote votes " + params.getQuoteVotes() + ", delimiter votes " + params.getDelimiterVotes());
         }
-        Map<String, Integer> quotes = new HashMap<>();
-        Map<String, Integer> delims = new HashMap<>();
-        int spaces = 0;
-        String quote = matches.group("quote");
-        if (quote != null) {
-            if (quotes.containsKey(quote)) {
-                quotes.put(quote, quotes.get(quote) + 1);
-            } else {
-                quotes.put(quote, 1);
-            }
-        }
-        String delim = matches.group("delim");
-        if (delim != null) {
-            if (delims.containsKey(delim)) {
-                delims.put(delim, delims.get(delim) + 1);
-            } else {
-                delims.put(delim, 1);
-            }
-            if (matches.group("space") != null) {
-                spaces += 1;
-            }
-        }
-        Map.Entry<String, Integer> maxEntry = null;
-        for (Map.Entry<String, Integer> entry : quotes.entrySet()) {
-            if (maxEntry == null || entry.getValue() > maxEntry.getValue()) {
-                maxEntry = entry;
-            }
-        }
-        String textQualifier = (maxEntry == null ? "" : maxEntry.getKey());
-        String columnDelimiter = "";
-        boolean skipInitialSpace = false;
-        if (!delims.isEmpty()) {
-            maxEntry = null;
-            for (Map.Entry<String, Integer> entry : delims.entrySet()) {
-                if (maxEntry == null || entry.getValue() > maxEntry.getValue()) {
-                    maxEntry = entry;
-                }
-            }
-            columnDelimiter = (maxEntry == null ? "" : maxEntry.getKey());
-            skipInitialSpace = (delims.get(columnDelimiter) == spaces);
-            if (lineEnding.equals(columnDelimiter)) { // most likely a file with a single column
-                columnDelimiter = "";
-
-            }
-        }
-        // if we see an extra quote between delimiters, we've got a
-        // double quoted format
-        String del = Pattern.quote(columnDelimiter);
-        String delFirstChar = Pattern.quote(columnDelimiter.charAt(0) + "");
-        String qot = Pattern.quote(textQualifier);
-        String dqr = "(?m)((" + del + ")|^)\\W*" + qot + "[^" + delFirstChar + lineEnding + "]*" + qot + "[^" + delFirstChar + lineEnding + "]*" + qot + "\\W*((" + del + ")|$$)";
-        Pattern p = Pattern.compile(dqr);
-        Matcher m = p.matcher(data);
-        boolean doubleQuoted = m.find(0) && (m.group(1) != null);
-        return new FileParameters(textQualifier, doubleQuoted, columnDelimiter, skipInitialSpace);
+        return params;
     }
 
     /**
@@ -1079,211 +1468,269 @@ public class FileServiceImpl implements FileService {
         return sb.toString();
     }
 
-    private DatasetInfo readJsonSample(String datasetName, String data) throws ExtractionException {
+    /**
+     * Infers the fields of a JSON dataset from up to maxRecords records,
+     * merging the fields seen across records, so that optional fields are
+     * found wherever they first appear.
+     *
+     * @param dataSourceName (String)
+     * @param datasetName (String)
+     * @param parser (JsonParser) closed when done
+     * @param maxRecords (int) or 0 to read every record
+     * @return (DatasetInfo)
+     */
+    private DatasetInfo readJsonSample(String dataSourceName, String datasetName, JsonParser parser,
+                                       int maxRecords)
+            throws ExtractionException {
+        JsonSchemaInferencer inferencer = new JsonSchemaInferencer(dateParser);
         try {
-            JsonFactory factory = new JsonFactory();
-            JsonParser parser = factory.createParser(data);
-            Stack<JsonToken> stack = new Stack<>();
-            List<Map<String, MyJsonValue>> objects = new ArrayList<>();
-            Map<String, MyJsonValue> currentObject = new HashMap<>();
-            Map<String, Integer> lengths = new HashMap<>();
-            JsonToken token;
-            while ((token = parser.nextToken()) != null && objects.isEmpty()) {
-                switch (token) {
-                    case START_OBJECT:
-                        stack.push(token);
-                        if (stack.size() == 1) {
-                            currentObject = new HashMap<>();
-                        }
-                        break;
-
-                    case END_OBJECT:
-                        stack.pop();
-                        if (stack.empty()) {
-                            objects.add(currentObject);
-                        }
-                        break;
-
-                    case FIELD_NAME:
-                        if (stack.size() == 1) {
-                            String key = parser.getCurrentName();
-                            JsonToken t = parser.nextToken();
-                            switch (t) {
-                                case START_OBJECT:
-                                    currentObject.put(key, new MyJsonValue(null, ValueTypes.OBJECT));
-                                    break;
-
-                                case START_ARRAY:
-                                    currentObject.put(key, new MyJsonValue(null, ValueTypes.ARRAY));
-                                    break;
-
-                                case VALUE_NUMBER_FLOAT:
-                                    currentObject.put(key, new MyJsonValue(parser.getFloatValue(), ValueTypes.NUMERIC));
-                                    break;
-
-                                case VALUE_NUMBER_INT:
-                                    currentObject.put(key, new MyJsonValue(parser.getIntValue(), ValueTypes.INTEGER));
-                                    break;
-
-                                case VALUE_NULL:
-                                    currentObject.put(key, new MyJsonValue(null, ValueTypes.NONE));
-                                    break;
-
-                                case VALUE_FALSE:
-                                    currentObject.put(key, new MyJsonValue(false, ValueTypes.BOOLEAN));
-                                    break;
-
-                                case VALUE_TRUE:
-                                    currentObject.put(key, new MyJsonValue(true, ValueTypes.BOOLEAN));
-                                    break;
-
-                                case VALUE_STRING:
-                                    String value = parser.getValueAsString();
-                                    if (hasValue(value)) {
-                                        ParsedDate dt = parseDate(value);
-                                        if (dt != null) {
-                                            currentObject.put(key, new MyJsonValue(dt, ValueTypes.DATE));
-                                            break;
-                                        }
-                                    }
-                                    currentObject.put(key, new MyJsonValue(value, ValueTypes.STRING));
-                                    int len = value.length();
-                                    int maxLen = lengths.getOrDefault(key, 0);
-                                    if (len > maxLen) {
-                                        lengths.put(key, len);
-                                    }
-                                    break;
-                            }
-                        }
-                }
+            try {
+                inferencer.read(parser, maxRecords);
+            } finally {
+                parser.close();
             }
-            FileDataSource fileDataSource = new FileDataSource();
-            fileDataSource.setName(datasetName);
-            fileDataSource.setFilepath(datasetName);
-            fileDataSource.setFilenamePattern(datasetName);
-            FileDataset fileDataset = new FileDataset();
-            fileDataset.setName(datasetName);
-            fileDataset.setDataSource(fileDataSource);
-            fileDataset.setFileType(FileType.JSON);
-            fileDataset.setBatch(true);
-
-            Map<String, ValueType> valueTypeMap = getValueTypeMap();
-            Map<String, DataType> dataTypeMap = getDataTypeMap();
+        } catch (IOException e) {
+            log.error(e.getMessage(), e);
+            throw new ExtractionException(e.getMessage(), e);
+        }
+        return getJsonDatasetInfo(dataSourceName, datasetName, inferencer);
+    }
 
-            int i = 1;
-            for (Map.Entry<String, MyJsonValue> entry : currentObject.entrySet()) {
-                String columnName = entry.getKey();
-                ValueTypes type = entry.getValue().getType();
-                DataTypes sqlType = getSqlType(type);
-                ValueType valueType = valueTypeMap.get(type.toString());
+    private DatasetInfo getJsonDatasetInfo(String dataSourceName, String datasetName,
+                                           JsonSchemaInferencer inferencer) {
+        int numRecords = inferencer.getRecords();
+        List<JsonSchemaInferencer.FieldStats> fields = inferencer.getFields();
 
-                FileColumn fileColumn = new FileColumn();
-                fileColumn.setName(columnName);
-                fileColumn.setDescription("Automatically created from import of " + datasetName);
-                fileColumn.setDataset(fileDataset);
-                fileColumn.setColumnIndex(i++);
-                fileColumn.setValueType(valueType);
-                fileColumn.setDataType(dataTypeMap.get(sqlType.toString()));
-                fileColumn.setLength(lengths.getOrDefault(columnName, 0));
+        if (log.isDebugEnabled()) {
+            log.debug("records " + numRecords);
+            for (JsonSchemaInferencer.FieldStats field : fields) {
+                log.debug(field.getName() + " " + field.getType() +
+                        " null=" + field.getNullRate(numRecords) +
+                        " absent=" + field.getAbsentRate(numRecords));
             }
+        }
 
-            DatasetInfo datasetInfo = new DatasetInfo();
-            List<ColumnInfo> columns = new ArrayList<>();
-            i = 1;
-            for (Map.Entry<String, MyJsonValue> entry : currentObject.entrySet()) {
-                columns.add(new ColumnInfo(entry.getKey(), i++, entry.getValue().getType().toString(),
-                        getSqlType(entry.getValue().getType()).toString(),
-                        lengths.getOrDefault(entry.getKey(), 0)));
-            }
-            datasetInfo.setColumns(columns);
-            datasetInfo.setFileType(FileType.JSON.toString());
+        DatasetInfo datasetInfo = new DatasetInfo();
+        datasetInfo.setSsuDesignation("nonsp");
+        datasetInfo.setDataSourceName(dataSourceName);
+        datasetInfo.setName(datasetName);
+        List<ColumnInfo> columns = new ArrayList<>();
+        int i = 1;
+        for (JsonSchemaInferencer.FieldStats field : fields) {
+            columns.add(toColumnInfo(field, i++, numRecords));
+        }
+        datasetInfo.setColumns(columns);
+        datasetInfo.setFileType(FileType.JSON.toString());
 
-            return datasetInfo;
+        return datasetInfo;
+    }
 
-        } catch (IOException e) {
-            e.printStackTrace();
-            log.error(e.getMessage(), e);
-            throw new ExtractionException(e.getMessage());
+    /**
+     * @param field (JsonSchemaInferencer.FieldStats)
+     * @param columnIndex (int)
+     * @param count (int) number of values the field could have had
+     * @return (ColumnInfo) with nested fields for an OBJECT, and an
+     *         element type for an ARRAY
+     */
+    private ColumnInfo toColumnInfo(JsonSchemaInferencer.FieldStats field, int columnIndex, int count) {
+        ValueTypes type = field.getType();
+        ColumnInfo column = new ColumnInfo(field.getName(), columnIndex, type.toString(),
+                getSqlType(type).toString(), field.getMaxLength());
+        column.setNullRate(field.getNullRate(count));
+        column.setAbsentRate(field.getAbsentRate(count));
+        if (type == ValueTypes.OBJECT) {
+            List<ColumnInfo> fields = new ArrayList<>();
+            int i = 1;
+            for (JsonSchemaInferencer.FieldStats child : field.getFields()) {
+                fields.add(toColumnInfo(child, i++, field.getObjects()));
+            }
+            column.setFields(fields);
+        } else if (type == ValueTypes.ARRAY && field.getElement() != null) {
+            JsonSchemaInferencer.FieldStats element = field.getElement();
+            column.setElementType(toColumnInfo(element, 1, element.getPresent()));
         }
+        return column;
     }
 
+    /**
+     * Infers the line ending as the candidate which splits the sample into
+     * more than one line with the least variance in line length, once
+     * outliers are removed.
+     *
+     * All candidates are counted in a single scan over a sample window at
+     * the start of the data. The window is grown only if it holds too few
+     * lines to judge.
+     *
+     * @param data File data
+     * @return LinesContainer
+     */
     public LinesContainer readLines(String data) {
-        String[] lines = null;
-        String lineEnding = null;
-        double minVariance = Double.MAX_VALUE;
-        for (String ending : lineEndings) {
-            if (log.isDebugEnabled()) {
-                log.debug("try ending [" + StringEscapeUtils.escapeJava(ending) + "]");
-            }
-            Pattern p = Pattern.compile(ending);
-            String[] ls = p.split(data);
-            double meanLength = getMeanLineLength(ls);
-            double sd = Math.sqrt(getLineLengthVariance(ls, meanLength));
-            String[] filtered = removeOutliers(ls, meanLength, sd);
-            double newMeanLength = getMeanLineLength(filtered);
-            double newVariance = getLineLengthVariance(filtered, newMeanLength);
-            if (log.isDebugEnabled()) {
-                log.debug("length=" + ls.length + ", var=" + newVariance);
+        int n = data.length();
+        int window = Math.min(n, READ_LINES_WINDOW);
+        LineStats[] stats;
+        LineStats best;
+        while (true) {
+            stats = scanLines(data, window);
+            best = null;
+            double minVariance = Double.MAX_VALUE;
+            for (LineStats ls : stats) {
+                double newVariance = ls.getFilteredVariance();
+                if (log.isDebugEnabled()) {
+                    log.debug("ending [" + StringEscapeUtils.escapeJava(ls.ending) + "] length=" + ls.count +
+                            ", var=" + newVariance);
+                }
+                if (ls.count > 1 && newVariance < minVariance) {
+                    minVariance = newVariance;
+                    best = ls;
+                }
+            }
+            if (window == n || (best != null && best.count > 2 * MAX_SAMPLE_SIZE)) {
+                break;
             }
-            if (ls.length > 1 && newVariance < minVariance) {
-                minVariance = newVariance;
-                lines = ls;
-                lineEnding = ending;
+            window = (int) Math.min((long) window * 2, n);
+        }
+        if (best == null) {
+            // Test line ending for files with a single line
+            for (LineStats ls : stats) {
+                if (ls.terminators > 0) {
+                    best = ls;
+                    break;
+                }
             }
         }
+        if (best == null) {
+            // a single line with no ending; any ending will do to split it
+            best = stats[1];
+        }
         if (log.isDebugEnabled()) {
-            log.debug("selected ending [" + StringEscapeUtils.escapeJava(lineEnding) + "]");
+            log.debug("selected ending [" + StringEscapeUtils.escapeJava(best.ending) + "]");
         }
-        // Test line ending for files with a single line
-        if (lineEnding == null) {
-            for (String ending : lineEndings) {
-                if (data.replaceAll("[^(" + ending + ")]+", "").length() > 0) {
-                    lineEnding = ending;
-                    break;
+        return new LinesContainer(data, best.bounds, best.count, best.ending);
+    }
+
+    /**
+     * Splits the first window characters of data on every candidate line
+     * ending at once, ignoring line endings inside quoted fields. As with
+     * String.split, trailing empty lines are dropped. A line cut off by the
+     * end of the window is also dropped.
+     */
+    private LineStats[] scanLines(String data, int window) {
+        LineStats crlf = new LineStats(lineEndings[0]);
+        LineStats lf = new LineStats(lineEndings[1]);
+        LineStats cr = new LineStats(lineEndings[2]);
+        LineStats ret = new LineStats(lineEndings[3]);
+        RecordSplitter splitter = new RecordSplitter(RecordSplitter.DEFAULT_QUOTE);
+        for (int i = 0; i < window; i++) {
+            char c = data.charAt(i);
+            if (c == splitter.getQuote()) {
+                i = splitter.quote(data, i);
+            } else if (splitter.isInQuote()) {
+                // a line ending inside a quoted field doesn't end the record
+                continue;
+            } else if (c == '\n') {
+                lf.endLine(i, i + 1);
+                if (i > 0 && data.charAt(i - 1) == '\r') {
+                    crlf.endLine(i - 1, i + 1);
                 }
+            } else if (c == '\r') {
+                cr.endLine(i, i + 1);
+            } else if (c == '<' && data.startsWith(lineEndings[3], i)) {
+                ret.endLine(i, i + lineEndings[3].length());
+            }
+        }
+        LineStats[] stats = new LineStats[] { crlf, lf, cr, ret };
+        for (LineStats ls : stats) {
+            if (window == data.length()) {
+                ls.addLine(ls.lineStart, window);
             }
+            ls.dropTrailingEmptyLines();
         }
-        return new LinesContainer(lines, lineEnding);
+        return stats;
     }
 
-    private RowsContainer readRows(CSVReader reader, int maxSampleSize) throws IOException {
+    /**
+     * Only as much of the sample as holds maxSampleSize rows is encoded for
+     * the tokenizer, in windows that double in size. A record that may go
+     * on past the end of a window is read again from the next one.
+     */
+    private RowsContainer readRows(String data, FileParameters fileParameters, int maxSampleSize) {
         if (log.isDebugEnabled()) {
             log.debug("reading rows");
         }
-        List<String[]> rowList = new ArrayList<>();
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer(fileParameters);
+        CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        ByteBuffer buf = ByteBuffer.allocate(Math.min(data.length(), READ_ROWS_WINDOW) + 16);
+        String[][] rows = new String[Math.min(maxSampleSize, 1024)][];
+        int n = 0;
         int maxNumberColumns = 0;
-        int k = 0;
-        String[] nextLine;
-        while ((nextLine = reader.readNext()) != null) {
-            rowList.add(nextLine);
-            maxNumberColumns = Math.max(maxNumberColumns, nextLine.length);
-            k += 1;
-            if (k == maxSampleSize) break;
-        }
-        int n = Math.min(maxSampleSize, rowList.size());
+        int window = READ_ROWS_WINDOW;
+        int encoded = 0;
+        int recordStart = 0;
+        while (n < maxSampleSize && encoded < data.length()) {
+            int to = (int) Math.min((long) encoded + window, data.length());
+            if (to < data.length() && Character.isHighSurrogate(data.charAt(to - 1))) {
+                // don't split a surrogate pair
+                to += 1;
+            }
+            buf = encode(encoder, data, encoded, to, buf);
+            encoded = to;
+            window *= 2;
+            ByteBuffer bytes = (ByteBuffer) buf.duplicate().flip();
+            bytes.position(recordStart);
+            tokenizer.reset(bytes);
+            while (n < maxSampleSize && tokenizer.next()) {
+                if (encoded < data.length() && tokenizer.position() == bytes.limit()) {
+                    // the record may go on in the next window
+                    break;
+                }
+                recordStart = tokenizer.position();
+                int numFields = tokenizer.size();
+                if (numFields == 1 && tokenizer.isEmpty(0)) {
+                    // blank line
+                    continue;
+                }
+                String[] row = new String[numFields];
+                for (int j = 0; j < numFields; j++) {
+                    row[j] = tokenizer.get(j);
+                }
+                if (n == rows.length) {
+                    rows = Arrays.copyOf(rows, (int) Math.min((long) n * 2, maxSampleSize));
+                }
+                rows[n++] = row;
+                maxNumberColumns = Math.max(maxNumberColumns, numFields);
+            }
+        }
         if (log.isDebugEnabled()) {
             log.debug("rows " + n);
             log.debug("cols " + maxNumberColumns);
         }
-        String[][] rows = new String[n][maxNumberColumns];
+        if (n < rows.length) {
+            rows = Arrays.copyOf(rows, n);
+        }
         for (int i = 0; i < n; i++) {
-            String[] row = rowList.get(i);
-            System.arraycopy(row, 0, rows[i], 0, row.length);
+            if (rows[i].length < maxNumberColumns) {
+                rows[i] = Arrays.copyOf(rows[i], maxNumberColumns);
+            }
         }
         return new RowsContainer(rows, maxNumberColumns);
     }
 
-    private String[] removeOutliers(String[] lines, double mean, double sd) {
-        List<String> filtered = new ArrayList<>();
-        for (String line : lines) {
-            // approximate by excluding lines with lengths greater than or equal to
-            // 2 standard deviations from the mean
-            // Chauvenet's criterion is a common method but requires a normal distribution function
-            if (Math.sqrt((mean - line.length()) * (mean - line.length())) / sd < 2) {
-                filtered.add(line);
-            }
-        }
-        return filtered.toArray(new String[filtered.size()]);
+    /**
+     * Appends the encoding of data[from, to) to buf, growing it as needed.
+     *
+     * @return (ByteBuffer) buf, or a larger copy of it
+     */
+    private static ByteBuffer encode(CharsetEncoder encoder, String data, int from, int to, ByteBuffer buf) {
+        CharBuffer in = CharBuffer.wrap(data, from, to);
+        while (encoder.encode(in, buf, to == data.length()).isOverflow()) {
+            ByteBuffer larger = ByteBuffer.allocate(buf.capacity() * 2 + in.remaining());
+            buf.flip();
+            larger.put(buf);
+            buf = larger;
+        }
+        return buf;
     }
 
     public FileParameters sniff(String data, String lineEnding) {
@@ -1297,25 +1744,64 @@ public class FileServiceImpl implements FileService {
                     (int) guessedDelimiter.charAt(0) + ") (length=" +
                     guessedDelimiter.length() + ")");
         }
-        if (guessedDelimiter.isEmpty() || guessedDelimiter.charAt(0) == 0) {
+        if (!isDefined(guessedDelimiter)) {
             FileParameters params2 = guessDelimiter(data, lineEnding);
-            if (params2.getColumnDelimiter().isEmpty()) {
+            if (isDefined(params2.getColumnDelimiter())) {
+                params1.setColumnDelimiter(params2.getColumnDelimiter());
+                params1.setSkipInitialSpace(params2.isSkipInitialSpace());
+            } else {
                 // TODO
                 // limit to 20 lines
                 FileParameters params3 = findMultiCharSequences(data, lineEnding);
-                if (params3.getColumnDelimiter().isEmpty()) {
+                if (!isDefined(params3.getColumnDelimiter())) {
                     log.warn("Could not determine delimiter - returning null");
                     return null;
                 }
                 params1.setColumnDelimiter(params3.getColumnDelimiter());
                 params1.setSkipInitialSpace(params3.isSkipInitialSpace());
+                return params1;
+            }
+        }
+
+        // a character such as '|' may only ever appear as part of a longer
+        // delimiter, such as "||" or "~|~"
+        String delimiter = params1.getColumnDelimiter();
+        if (mayBePartOfSequence(data, delimiter)) {
+            FileParameters params3 = findMultiCharSequences(data, lineEnding);
+            String sequence = params3.getColumnDelimiter();
+            if (isDefined(sequence) && sequence.length() > delimiter.length() && sequence.contains(delimiter) &&
+                    !data.replace(sequence, "").contains(delimiter)) {
+                params1.setColumnDelimiter(sequence);
+                params1.setSkipInitialSpace(params3.isSkipInitialSpace());
             }
-            params1.setColumnDelimiter(params2.getColumnDelimiter());
-            params1.setSkipInitialSpace(params2.isSkipInitialSpace());
         }
         return params1;
     }
 
+    /**
+     * @return (boolean) true if the first occurrence of a single character
+     *         delimiter is next to another symbol
+     */
+    private static boolean mayBePartOfSequence(String data, String delimiter) {
+        if (delimiter.length() != 1) return false;
+        int i = data.indexOf(delimiter);
+        if (i == -1) return false;
+        return (i > 0 && isSymbol(data.charAt(i - 1))) || (i + 1 < data.length() && isSymbol(data.charAt(i + 1)));
+    }
+
+    private static boolean isSymbol(char c) {
+        return !Character.isLetterOrDigit(c) && !Character.isWhitespace(c) && c != '"' && c != '\'';
+    }
+
+    /**
+     * @param delimiter (String) a guessed column delimiter
+     * @return (boolean) false if no delimiter was found, i.e. it is null,
+     *         empty or NUL
+     */
+    private static boolean isDefined(String delimiter) {
+        return delimiter != null && !delimiter.isEmpty() && delimiter.charAt(0) != 0;
+    }
+
     private int testHeaderType(Pair<ValueTypes, Integer> type, String cell) {
         if (cell == null) return 0;
         if (type.l == ValueTypes.STRING) {
@@ -1351,32 +1837,94 @@ public class FileServiceImpl implements FileService {
         return 0;
     }
 
-    private static class MyJsonValue {
+    private static class RowsContainer {
+        String[][] rows;
+        int maxNumberColumns;
 
-        private Object value;
-        private ValueTypes type;
+        RowsContainer(String[][] rows, int maxNumberColumns) {
+            this.rows = rows;
+            this.maxNumberColumns = maxNumberColumns;
+        }
+    }
 
-        MyJsonValue(Object value, ValueTypes type) {
-            this.value = value;
-            this.type = type;
+    /**
+     * Lines found when splitting on one candidate line ending.
+     */
+    private static class LineStats {
+        final String ending;
+        int[] bounds = new int[64];
+        int count;
+        int terminators;
+        int lineStart;
+
+        LineStats(String ending) {
+            this.ending = ending;
         }
 
-        public Object getValue() {
-            return value;
+        void endLine(int end, int nextStart) {
+            addLine(lineStart, end);
+            lineStart = nextStart;
+            terminators += 1;
         }
 
-        public ValueTypes getType() {
-            return type;
+        void addLine(int start, int end) {
+            if (2 * count + 1 >= bounds.length) {
+                bounds = Arrays.copyOf(bounds, bounds.length * 2);
+            }
+            bounds[2 * count] = start;
+            bounds[2 * count + 1] = end;
+            count += 1;
         }
-    }
 
-    private static class RowsContainer {
-        String[][] rows;
-        int maxNumberColumns;
+        void dropTrailingEmptyLines() {
+            while (count > 0 && bounds[2 * count - 1] == bounds[2 * count - 2]) {
+                count -= 1;
+            }
+        }
 
-        RowsContainer(String[][] rows, int maxNumberColumns) {
-            this.rows = rows;
-            this.maxNumberColumns = maxNumberColumns;
+        int length(int i) {
+            return bounds[2 * i + 1] - bounds[2 * i];
+        }
+
+        /**
+         * Variance in line length, once outliers are removed.
+         */
+        double getFilteredVariance() {
+            if (count == 0) return 0;
+            double sum = 0.0;
+            for (int i = 0; i < count; i++) {
+                sum += length(i);
+            }
+            double mean = sum / count;
+            double temp = 0.0;
+            for (int i = 0; i < count; i++) {
+                temp += (mean - length(i)) * (mean - length(i));
+            }
+            double sd = Math.sqrt(temp / count);
+            int filteredCount = 0;
+            double filteredSum = 0.0;
+            for (int i = 0; i < count; i++) {
+                if (isInlier(length(i), mean, sd)) {
+                    filteredSum += length(i);
+                    filteredCount += 1;
+                }
+            }
+            if (filteredCount == 0) return 0;
+            double filteredMean = filteredSum / filteredCount;
+            temp = 0.0;
+            for (int i = 0; i < count; i++) {
+                if (isInlier(length(i), mean, sd)) {
+                    temp += (filteredMean - length(i)) * (filteredMean - length(i));
+                }
+            }
+            return temp / filteredCount;
+        }
+
+        private static boolean isInlier(int length, double mean, double sd) {
+            // approximate by excluding lines with lengths greater than or equal to
+            // 2 standard deviations from the mean
+            // Chauvenet's criterion is a common method but requires a normal distribution function
+            return Math.abs(mean - length) / sd < 2;
         }
     }
 }
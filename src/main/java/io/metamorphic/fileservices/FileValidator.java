@@ -0,0 +1,261 @@
+package io.metamorphic.fileservices;
+
+import io.metamorphic.models.ColumnInfo;
+import io.metamorphic.models.DatasetInfo;
+import io.metamorphic.models.FileType;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Checks every record of a delimited file against the schema inferred
+ * from a sample of it, in parallel.
+ *
+ * The file is cut by a DelimitedSplitter into chunks that start at the
+ * start of a record, never inside a quoted field. Each chunk is
+ * memory-mapped and tokenized in place by a worker, which only decodes
+ * the values of columns that have a type to check. The results of the
+ * chunks are merged in file order, so the line numbers kept are the
+ * first in the file.
+ *
+ * The file must be UTF-8, or an encoding that agrees with ASCII on the
+ * delimiter, quote and line endings. A UTF-8 byte order mark is skipped.
+ */
+class FileValidator {
+
+    private static final Logger log = LogManager.getLogger(FileValidator.class);
+
+    private final FileService fileService;
+    private final int numThreads;
+
+    /**
+     * @param fileService (FileService) used to deduce the type of each value
+     * @param numThreads (int) number of worker threads
+     */
+    FileValidator(FileService fileService, int numThreads) {
+        this.fileService = fileService;
+        this.numThreads = Math.max(1, numThreads);
+    }
+
+    /**
+     * @param path (Path) a delimited file
+     * @param datasetInfo (DatasetInfo) as extracted from a sample of the file
+     * @return (ValidationResult)
+     */
+    ValidationResult validate(Path path, DatasetInfo datasetInfo) throws ExtractionException, IOException {
+        if (!FileType.DELIMITED.toString().equals(datasetInfo.getFileType())) {
+            throw new ExtractionException("Only delimited files can be validated: " + datasetInfo.getFileType());
+        }
+        if (datasetInfo.getCompressionType() != null) {
+            throw new ExtractionException("Compressed files can't be validated: " + datasetInfo.getCompressionType());
+        }
+        FileParameters fileParameters = datasetInfo.getFileParameters();
+        List<ColumnInfo> columns = datasetInfo.getColumns();
+        ValueTypes[] types = new ValueTypes[columns.size()];
+        for (int j = 0; j < types.length; j++) {
+            types[j] = ValueTypes.valueOf(columns.get(j).getType());
+        }
+        DateTimeFormatter[] dateParsers = getDateParsers(columns, types, fileParameters.getSrcFormats());
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+            try {
+                long rangeSize = DelimitedSplitter.getRangeSize(channel.size(), numThreads);
+                DelimitedSplitter splitter = new DelimitedSplitter(fileParameters);
+                List<DelimitedSplitter.Chunk> chunks = splitter.split(channel, rangeSize, executor).chunks;
+                if (log.isDebugEnabled()) {
+                    log.debug("validating " + chunks.size() + " chunks of " + path);
+                }
+                List<Future<ChunkResult>> futures = new ArrayList<>(chunks.size());
+                for (int i = 0; i < chunks.size(); i++) {
+                    DelimitedSplitter.Chunk chunk = chunks.get(i);
+                    boolean skipHeader = i == 0 && fileParameters.hasHeader();
+                    futures.add(executor.submit(() ->
+                            validateChunk(channel, chunk, fileParameters, types, dateParsers, skipHeader)));
+                }
+                ChunkResult total = new ChunkResult(types.length);
+                for (Future<ChunkResult> future : futures) {
+                    total.merge(future.get());
+                }
+                List<ValidationResult.ColumnViolations> violations = new ArrayList<>(types.length);
+                for (int j = 0; j < types.length; j++) {
+                    violations.add(new ValidationResult.ColumnViolations(columns.get(j).getName(),
+                            types[j].toString(), total.violations[j], total.violationLines.get(j)));
+                }
+                return new ValidationResult(total.numRecords, total.numMalformed, total.malformedLines, violations);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted validating " + path);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IllegalStateException(cause);
+            } finally {
+                executor.shutdownNow();
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private ChunkResult validateChunk(FileChannel channel, DelimitedSplitter.Chunk chunk,
+                                      FileParameters fileParameters, ValueTypes[] types,
+                                      DateTimeFormatter[] dateParsers, boolean skipHeader)
+            throws IOException {
+        ChunkResult result = new ChunkResult(types.length);
+        if (chunk.end - chunk.start > Integer.MAX_VALUE) {
+            throw new IOException("Record at line " + chunk.firstLine + " is too long to map");
+        }
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, chunk.start, chunk.end - chunk.start);
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer(fileParameters);
+        tokenizer.reset(buf, chunk.firstLine);
+        boolean header = skipHeader;
+        while (tokenizer.next()) {
+            int numFields = tokenizer.size();
+            if (numFields == 1 && tokenizer.isEmpty(0)) {
+                // blank line
+                continue;
+            }
+            if (header) {
+                header = false;
+                continue;
+            }
+            result.numRecords += 1;
+            long line = tokenizer.getLineNumber();
+            if (numFields != types.length) {
+                result.numMalformed += 1;
+                addLine(result.malformedLines, line);
+                continue;
+            }
+            for (int j = 0; j < numFields; j++) {
+                if (!isChecked(types[j]) || tokenizer.isEmpty(j)) continue;
+                boolean fits;
+                if (dateParsers[j] != null) {
+                    String value = tokenizer.get(j).trim();
+                    fits = value.isEmpty() || DateParser.parse(dateParsers[j], value) != null;
+                } else {
+                    fits = fits(fileService.deduceDataType(tokenizer.get(j)).getType(), types[j]);
+                }
+                if (!fits) {
+                    result.violations[j] += 1;
+                    addLine(result.violationLines.get(j), line);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A DATE value must be in the format inferred for its column, e.g. a
+     * column of dd/MM/yyyy dates doesn't accept 2015-01-13, which Spark
+     * would fail to load with that format.
+     *
+     * @return (DateTimeFormatter[]) per column, a parser for the inferred
+     *         date format, or null if it is not a DATE column with a format
+     */
+    private static DateTimeFormatter[] getDateParsers(List<ColumnInfo> columns, ValueTypes[] types,
+                                                      Map<String, String> srcFormats) {
+        DateTimeFormatter[] dateParsers = new DateTimeFormatter[types.length];
+        if (srcFormats == null) {
+            return dateParsers;
+        }
+        for (int j = 0; j < types.length; j++) {
+            String format = srcFormats.get(columns.get(j).getName());
+            if (types[j] == ValueTypes.DATE && format != null) {
+                dateParsers[j] = DateParser.getParser(format);
+            }
+        }
+        return dateParsers;
+    }
+
+    /**
+     * @return (boolean) false for types that any value fits
+     */
+    private static boolean isChecked(ValueTypes columnType) {
+        switch (columnType) {
+            case BIT:
+            case BOOLEAN:
+            case INTEGER:
+            case NUMERIC:
+            case DATE:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * A value fits its column's type if it is of that type, or of a
+     * narrower one, e.g. 1 (a BIT) in an INTEGER column.
+     */
+    private static boolean fits(ValueTypes valueType, ValueTypes columnType) {
+        if (valueType == ValueTypes.NONE || valueType == columnType) {
+            return true;
+        }
+        switch (columnType) {
+            case BOOLEAN:
+            case INTEGER:
+                return valueType == ValueTypes.BIT;
+            case NUMERIC:
+                return valueType == ValueTypes.BIT || valueType == ValueTypes.INTEGER;
+            default:
+                return false;
+        }
+    }
+
+    private static void addLine(List<Long> lines, long line) {
+        if (lines.size() < ValidationResult.MAX_SAMPLE_LINES) {
+            lines.add(line);
+        }
+    }
+
+    private static class ChunkResult {
+
+        long numRecords;
+        long numMalformed;
+        final List<Long> malformedLines = new ArrayList<>();
+        final long[] violations;
+        final List<List<Long>> violationLines;
+
+        ChunkResult(int numColumns) {
+            violations = new long[numColumns];
+            violationLines = new ArrayList<>(numColumns);
+            for (int j = 0; j < numColumns; j++) {
+                violationLines.add(new ArrayList<>());
+            }
+        }
+
+        /**
+         * Adds the result of the chunk after this one.
+         */
+        void merge(ChunkResult other) {
+            numRecords += other.numRecords;
+            numMalformed += other.numMalformed;
+            for (Long line : other.malformedLines) {
+                addLine(malformedLines, line);
+            }
+            for (int j = 0; j < violations.length; j++) {
+                violations[j] += other.violations[j];
+                for (Long line : other.violationLines.get(j)) {
+                    addLine(violationLines.get(j), line);
+                }
+            }
+        }
+    }
+}
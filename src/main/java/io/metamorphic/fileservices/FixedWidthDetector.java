@@ -0,0 +1,115 @@
+package io.metamorphic.fileservices;
+
+/**
+ * Infers the column layout of a fixed-width file.
+ *
+ * The sample is walked once, counting for each character position the
+ * number of lines in which it is a space (or past the end of the line), a
+ * digit, or a letter. A column starts at a position where either:
+ *
+ *   the position before is a space in every line, and this one is not,
+ *     i.e. at the first character after a gap; or
+ *   the position before is a digit, and this one a letter, in every line
+ *     but one (a header), e.g. between 00000042 and SMITH.
+ *
+ * Padding after a left-aligned value, or before a right-aligned number,
+ * falls in the column to its left. Adjacent values of the same class with
+ * no gap between them, e.g. a number followed by a date, can't be told
+ * apart, and are left as one column.
+ *
+ * A position holding the same delimiter character (,;| or tab) in every
+ * line means the file is really delimited with aligned columns, and no
+ * layout is returned.
+ */
+class FixedWidthDetector {
+
+    private static final String DELIMITERS = ",;|\t";
+
+    private FixedWidthDetector() {}
+
+    /**
+     * @param data (String)
+     * @param lines (LinesContainer) lines of data
+     * @param maxLines (int) number of lines examined
+     * @return (int[]) width of each column, the last running to the end of
+     *         the longest line, or null if no layout of at least two
+     *         columns was found
+     */
+    static int[] detect(String data, LinesContainer lines, int maxLines) {
+        int n = 0;
+        int width = 0;
+        int numLines = Math.min(lines.size(), maxLines);
+        for (int i = 0; i < numLines; i++) {
+            if (lines.length(i) > 0) {
+                n += 1;
+                width = Math.max(width, lines.length(i));
+            }
+        }
+        if (n < 2 || width < 2) {
+            return null;
+        }
+
+        // positions past the end of a line count as spaces
+        int[] nonSpaces = new int[width];
+        int[] digits = new int[width];
+        int[] letters = new int[width];
+        int[] delimiters = new int[width];
+        for (int i = 0; i < numLines; i++) {
+            int start = lines.start(i);
+            int len = lines.length(i);
+            for (int p = 0; p < len; p++) {
+                char c = data.charAt(start + p);
+                if (c == ' ') continue;
+                nonSpaces[p] += 1;
+                if (c >= '0' && c <= '9') {
+                    digits[p] += 1;
+                } else if (Character.isLetter(c)) {
+                    letters[p] += 1;
+                } else if (DELIMITERS.indexOf(c) != -1) {
+                    delimiters[p] += 1;
+                }
+            }
+        }
+
+        int[] starts = new int[width];
+        int numColumns = 1;
+        for (int p = 1; p < width; p++) {
+            if (delimiters[p] >= n - 1) {
+                return null;
+            }
+            boolean gap = nonSpaces[p - 1] == 0 && nonSpaces[p] > 0;
+            boolean digitToLetter = digits[p - 1] >= n - 1 && letters[p] >= n - 1;
+            if (gap || digitToLetter) {
+                starts[numColumns++] = p;
+            }
+        }
+        if (numColumns < 2) {
+            return null;
+        }
+        int[] widths = new int[numColumns];
+        for (int j = 0; j < numColumns; j++) {
+            int end = (j + 1 < numColumns) ? starts[j + 1] : width;
+            widths[j] = end - starts[j];
+        }
+        return widths;
+    }
+
+    /**
+     * Cuts a line into trimmed values. Columns past the end of the line
+     * are empty.
+     *
+     * @param line (String)
+     * @param widths (int[]) width of each column
+     * @return (String[]) values
+     */
+    static String[] split(String line, int[] widths) {
+        String[] values = new String[widths.length];
+        int start = 0;
+        for (int j = 0; j < widths.length; j++) {
+            int end = Math.min(start + widths[j], line.length());
+            values[j] = start < end ? line.substring(start, end).trim() : "";
+            start += widths[j];
+        }
+        return values;
+    }
+}
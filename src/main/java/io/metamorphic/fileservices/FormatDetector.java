@@ -0,0 +1,242 @@
+package io.metamorphic.fileservices;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import io.metamorphic.models.CompressionType;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Detects the format of a file from a small prefix of its bytes, so that
+ * the cost is the same however large the file is.
+ *
+ * Binary formats, including archives and compressed streams, are
+ * recognised by their magic number. The magic numbers of Parquet, ORC and
+ * Avro are mostly text, e.g. "PAR1" or "ORC", which may also start a CSV
+ * header, so those files must also have a control character soon after
+ * the start. Otherwise, after any Byte Order Mark and leading whitespace,
+ * the data is JSON if the first byte opens an object or array and the
+ * next token could follow it in JSON, so that a CSV header such as
+ * [id],[name] is not taken for JSON. Anything else is taken to be
+ * delimited.
+ *
+ * JSON whose first line holds exactly one complete object is JSON Lines.
+ */
+class FormatDetector {
+
+    enum Format {
+        DELIMITED(false, CompressionType.NONE),
+        JSON(false, CompressionType.NONE),
+        JSON_LINES(false, CompressionType.NONE),
+        GZIP(true, CompressionType.GZ),
+        ZIP(true, CompressionType.ZIP),
+        TAR(true, CompressionType.TAR),
+        SEVEN_ZIP(true, CompressionType.SEVEN_ZIP),
+        PARQUET(true, CompressionType.NONE),
+        ORC(true, CompressionType.NONE),
+        AVRO(true, CompressionType.NONE);
+
+        private final boolean binary;
+        private final CompressionType compressionType;
+
+        Format(boolean binary, CompressionType compressionType) {
+            this.binary = binary;
+            this.compressionType = compressionType;
+        }
+
+        boolean isBinary() {
+            return binary;
+        }
+
+        CompressionType getCompressionType() {
+            return compressionType;
+        }
+
+        boolean isCompressed() {
+            return compressionType != CompressionType.NONE;
+        }
+
+        boolean isJson() {
+            return this == JSON || this == JSON_LINES;
+        }
+    }
+
+    // characters of a String sample that are examined
+    private static final int MAX_TEXT_PREFIX = 4096;
+
+    // bytes at the start of a file with a text magic number searched for a
+    // control character
+    private static final int MAX_MAGIC_PREFIX = 512;
+
+    private static final byte[] GZIP_MAGIC = new byte[] { 0x1f, (byte) 0x8b };
+    private static final byte[] ZIP_MAGIC = new byte[] { 'P', 'K', 0x03, 0x04 };
+    private static final byte[] EMPTY_ZIP_MAGIC = new byte[] { 'P', 'K', 0x05, 0x06 };
+    private static final byte[] SEVEN_ZIP_MAGIC = new byte[] { '7', 'z', (byte) 0xbc, (byte) 0xaf, 0x27, 0x1c };
+    private static final byte[] PARQUET_MAGIC = new byte[] { 'P', 'A', 'R', '1' };
+    private static final byte[] ORC_MAGIC = new byte[] { 'O', 'R', 'C' };
+    private static final byte[] AVRO_MAGIC = new byte[] { 'O', 'b', 'j', 0x01 };
+
+    private static final byte[] UTF8_BOM = new byte[] { (byte) 0xef, (byte) 0xbb, (byte) 0xbf };
+    private static final byte[] UTF16BE_BOM = new byte[] { (byte) 0xfe, (byte) 0xff };
+    private static final byte[] UTF16LE_BOM = new byte[] { (byte) 0xff, (byte) 0xfe };
+
+    private FormatDetector() {}
+
+    /**
+     * @param data (String) sample, of which only the start is examined
+     * @return (Format)
+     */
+    static Format detect(String data) {
+        String prefix = data.length() > MAX_TEXT_PREFIX ? data.substring(0, MAX_TEXT_PREFIX) : data;
+        byte[] bytes = prefix.getBytes(StandardCharsets.UTF_8);
+        return detect(bytes, bytes.length);
+    }
+
+    /**
+     * @param buf (byte[]) start of the file
+     * @param len (int) number of bytes of buf filled
+     * @return (Format)
+     */
+    static Format detect(byte[] buf, int len) {
+        if (startsWith(buf, len, GZIP_MAGIC)) return Format.GZIP;
+        if (startsWith(buf, len, ZIP_MAGIC) || startsWith(buf, len, EMPTY_ZIP_MAGIC)) return Format.ZIP;
+        if (startsWith(buf, len, SEVEN_ZIP_MAGIC)) return Format.SEVEN_ZIP;
+        if (TarReader.isTar(buf, len)) return Format.TAR;
+        if (startsWithBinary(buf, len, PARQUET_MAGIC)) return Format.PARQUET;
+        if (startsWithBinary(buf, len, AVRO_MAGIC)) return Format.AVRO;
+        if (startsWithBinary(buf, len, ORC_MAGIC)) return Format.ORC;
+
+        int start = 0;
+        boolean wide = false;
+        if (startsWith(buf, len, UTF8_BOM)) {
+            start = UTF8_BOM.length;
+        } else if (startsWith(buf, len, UTF16BE_BOM) || startsWith(buf, len, UTF16LE_BOM)) {
+            start = 2;
+            wide = true;
+        }
+        int i = skipWhitespace(buf, len, start, wide);
+        if (i == len || (buf[i] != '{' && buf[i] != '[')) {
+            return Format.DELIMITED;
+        }
+        byte open = buf[i];
+        int j = skipWhitespace(buf, len, i + 1, wide);
+        if (j < len && !canFollow(open, buf, len, j, wide)) {
+            return Format.DELIMITED;
+        }
+        if (open == '{' && !wide && isSingleObjectLine(buf, i, len)) {
+            return Format.JSON_LINES;
+        }
+        return Format.JSON;
+    }
+
+    private static boolean canFollow(byte open, byte[] buf, int len, int i, boolean wide) {
+        byte b = buf[i];
+        if (open == '{') {
+            return b == '"' || b == '}';
+        }
+        switch (b) {
+            case '{': case '[': case ']': case '"': case '-':
+                return true;
+            case 't':
+                return startsWithText(buf, len, i, "true", wide);
+            case 'f':
+                return startsWithText(buf, len, i, "false", wide);
+            case 'n':
+                return startsWithText(buf, len, i, "null", wide);
+            default:
+                return b >= '0' && b <= '9';
+        }
+    }
+
+    /**
+     * @return (boolean) true if the line from start holds one complete
+     *         object and nothing else
+     */
+    private static boolean isSingleObjectLine(byte[] buf, int start, int len) {
+        int end = start;
+        while (end < len && buf[end] != '\n' && buf[end] != '\r') {
+            end += 1;
+        }
+        if (end == len) {
+            // the line may continue past the prefix
+            return false;
+        }
+        try {
+            JsonParser parser = new JsonFactory().createParser(buf, start, end - start);
+            try {
+                if (parser.nextToken() != JsonToken.START_OBJECT) {
+                    return false;
+                }
+                parser.skipChildren();
+                return parser.nextToken() == null;
+            } finally {
+                parser.close();
+            }
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return (boolean) true if buf starts with magic, and is not text, as
+     *         its first MAX_MAGIC_PREFIX bytes include a control character
+     */
+    private static boolean startsWithBinary(byte[] buf, int len, byte[] magic) {
+        return startsWith(buf, len, magic) && hasControlCharacter(buf, Math.min(len, MAX_MAGIC_PREFIX));
+    }
+
+    /**
+     * @return (boolean) true if the first len bytes include a control
+     *         character that doesn't appear in text, such as NUL
+     */
+    private static boolean hasControlCharacter(byte[] buf, int len) {
+        for (int i = 0; i < len; i++) {
+            byte b = buf[i];
+            boolean whitespace = b == '\t' || b == '\n' || b == '\r' || b == 0x0b || b == '\f';
+            if ((b >= 0 && b < 0x20 && !whitespace) || b == 0x7f) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static int skipWhitespace(byte[] buf, int len, int i, boolean wide) {
+        while (i < len) {
+            byte b = buf[i];
+            if (b == ' ' || b == '\t' || b == '\r' || b == '\n' || (wide && b == 0)) {
+                i += 1;
+            } else {
+                break;
+            }
+        }
+        return i;
+    }
+
+    private static boolean startsWithText(byte[] buf, int len, int i, String text, boolean wide) {
+        for (int k = 0; k < text.length(); k++) {
+            // the other byte of a UTF-16 code unit
+            while (wide && i < len && buf[i] == 0) {
+                i += 1;
+            }
+            if (i == len) {
+                // cut short by the end of the prefix
+                return true;
+            }
+            if (buf[i] != text.charAt(k)) {
+                return false;
+            }
+            i += 1;
+        }
+        return true;
+    }
+
+    private static boolean startsWith(byte[] buf, int len, byte[] magic) {
+        if (len < magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if (buf[i] != magic[i]) return false;
+        }
+        return true;
+    }
+}
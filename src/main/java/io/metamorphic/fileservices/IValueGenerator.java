@@ -0,0 +1,16 @@
+package io.metamorphic.fileservices;
+
+import com.github.javafaker.Faker;
+
+/**
+ * Produces values for one column of generated data.
+ *
+ * A generator is resolved once per column, so that choosing what kind of
+ * value to produce is not repeated for every row. It holds no random
+ * state of its own; all randomness comes from the Faker passed in, so a
+ * seeded Faker gives repeatable output.
+ */
+public interface IValueGenerator {
+
+    String generate(Faker faker);
+}
@@ -0,0 +1,200 @@
+package io.metamorphic.fileservices;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Infers the schema of a JSON Lines file in parallel.
+ *
+ * The file is split into ranges at newlines, each range is memory-mapped
+ * and read by a JsonSchemaInferencer on the caller's executor, and the
+ * partial schemas are merged in file order. With a record limit, each
+ * range reads an equal share of it from its start, so the records used
+ * are spread across the file rather than taken from its head.
+ *
+ * A newline byte ends a line only in a charset that encodes ASCII as
+ * ASCII, such as UTF-8 or ISO-8859-1, not in UTF-16 or UTF-32; see
+ * canSplit.
+ */
+class JsonLinesSplitter {
+
+    private static final Logger log = LogManager.getLogger(JsonLinesSplitter.class);
+
+    // a single mapping can't exceed 2GB
+    private static final long MAX_RANGE = Integer.MAX_VALUE;
+
+    // the characters that split and parse JSON Lines
+    private static final String ASCII_SYNTAX = "\n\r\t {}[]:,\"\\";
+
+    private final DateParser dateParser;
+    private final Charset charset;
+    private final int splits;
+    private final int maxRecords;
+
+    /**
+     * @param dateParser (DateParser)
+     * @param charset (Charset) of the file; see canSplit
+     * @param splits (int) number of ranges
+     * @param maxRecords (int) records to read in all, or 0 to read every record
+     */
+    JsonLinesSplitter(DateParser dateParser, Charset charset, int splits, int maxRecords) {
+        if (!canSplit(charset)) {
+            throw new IllegalArgumentException("Cannot split a file at newlines in " + charset);
+        }
+        this.dateParser = dateParser;
+        this.charset = charset;
+        this.splits = Math.max(1, splits);
+        this.maxRecords = maxRecords;
+    }
+
+    /**
+     * @param charset (Charset)
+     * @return (boolean) true if charset encodes the characters of JSON
+     *         syntax as the same single bytes as ASCII, so a newline byte
+     *         always ends a line
+     */
+    static boolean canSplit(Charset charset) {
+        return charset.canEncode() && Arrays.equals(ASCII_SYNTAX.getBytes(charset),
+                ASCII_SYNTAX.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @param path (Path) a JSON Lines file
+     * @param executor (ExecutorService) runs the ranges; not shut down
+     * @return (JsonSchemaInferencer) the merged schema of every range
+     */
+    JsonSchemaInferencer infer(Path path, ExecutorService executor) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            long[] bounds = split(channel);
+            int numRanges = bounds.length - 1;
+            int recordsPerRange = maxRecords <= 0 ? 0 : (maxRecords + numRanges - 1) / numRanges;
+            if (log.isDebugEnabled()) {
+                log.debug("reading " + numRanges + " ranges of " + path);
+            }
+            List<Future<JsonSchemaInferencer>> futures = new ArrayList<>(numRanges);
+            try {
+                for (int i = 0; i < numRanges; i++) {
+                    long start = bounds[i];
+                    long end = bounds[i + 1];
+                    futures.add(executor.submit(() -> inferRange(channel, start, end, recordsPerRange)));
+                }
+                JsonSchemaInferencer schema = null;
+                for (Future<JsonSchemaInferencer> future : futures) {
+                    JsonSchemaInferencer partial = future.get();
+                    if (schema == null) {
+                        schema = partial;
+                    } else {
+                        schema.merge(partial);
+                    }
+                }
+                return schema;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted reading " + path);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    private JsonSchemaInferencer inferRange(FileChannel channel, long start, long end, int maxRecords)
+            throws IOException {
+        JsonSchemaInferencer inferencer = new JsonSchemaInferencer(dateParser);
+        if (end > start) {
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            InputStream in = new ByteBufferInputStream(buf);
+            // Jackson decodes UTF-8 bytes itself, faster than a Reader
+            JsonParser parser = StandardCharsets.UTF_8.equals(charset) ?
+                    new JsonFactory().createParser(in) :
+                    new JsonFactory().createParser(new InputStreamReader(in, charset));
+            try {
+                inferencer.read(parser, maxRecords);
+            } finally {
+                parser.close();
+            }
+        }
+        return inferencer;
+    }
+
+    /**
+     * @return (long[]) the start of each range, and the end of the file; a
+     *         range boundary is always the start of a line
+     */
+    private long[] split(FileChannel channel) throws IOException {
+        long size = channel.size();
+        int n = (int) Math.max(splits, (size + MAX_RANGE - 1) / MAX_RANGE);
+        long[] bounds = new long[n + 1];
+        bounds[n] = size;
+        for (int i = 1; i < n; i++) {
+            long pos = Math.max(size / n * i, bounds[i - 1]);
+            bounds[i] = nextLineStart(channel, pos, size);
+        }
+        return bounds;
+    }
+
+    private static long nextLineStart(FileChannel channel, long pos, long size) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(4096);
+        while (pos < size) {
+            buf.clear();
+            int n = channel.read(buf, pos);
+            if (n <= 0) break;
+            for (int i = 0; i < n; i++) {
+                if (buf.get(i) == '\n') {
+                    return pos + i + 1;
+                }
+            }
+            pos += n;
+        }
+        return size;
+    }
+
+    private static class ByteBufferInputStream extends InputStream {
+
+        private final ByteBuffer buf;
+
+        ByteBufferInputStream(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        @Override
+        public int read() {
+            return buf.hasRemaining() ? buf.get() & 0xff : -1;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (!buf.hasRemaining()) {
+                return -1;
+            }
+            int n = Math.min(len, buf.remaining());
+            buf.get(b, off, n);
+            return n;
+        }
+    }
+}
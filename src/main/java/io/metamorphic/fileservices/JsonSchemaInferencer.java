@@ -0,0 +1,375 @@
+package io.metamorphic.fileservices;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.logging.log4j.LogManager;
+import org.apache.logging.log4j.Logger;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Infers the schema of a JSON dataset from a stream of records, i.e.
+ * top-level objects (JSON Lines), or the objects of a top-level array.
+ *
+ * The schema is a tree of FieldStats. Nested objects get a field for each
+ * key seen in any of them, and arrays get a single element, merged from
+ * every element of every array seen, so an array of objects becomes an
+ * array of one merged struct. Only statistics are kept, so memory is
+ * bounded by the size of the schema, however many records are read.
+ *
+ * For each field, the types seen are merged (INTEGER and NUMERIC to
+ * NUMERIC, otherwise mixed types to STRING), and the number of objects in
+ * which it is absent, or present but null or empty, are counted.
+ */
+class JsonSchemaInferencer {
+
+    private static final Logger log = LogManager.getLogger(JsonSchemaInferencer.class);
+
+    private final DateParser dateParser;
+
+    // the top-level fields, as the fields of an object holding each record
+    private final FieldStats root;
+
+    // counts changed by the current record, undone if it is cut short
+    private final List<FieldStats> presentCounted = new ArrayList<>();
+    private final List<FieldStats> nullCounted = new ArrayList<>();
+    private final List<FieldStats> objectCounted = new ArrayList<>();
+
+    JsonSchemaInferencer(DateParser dateParser) {
+        this.dateParser = dateParser;
+        this.root = new FieldStats(null, null);
+    }
+
+    /**
+     * Reads records until maxRecords have been read, or the end of the
+     * input. A record cut short at the end of a window is ignored.
+     *
+     * @param parser (JsonParser)
+     * @param maxRecords (int) or 0 to read every record
+     */
+    void read(JsonParser parser, int maxRecords) throws IOException {
+        boolean inArray = false;
+        try {
+            JsonToken token;
+            while ((maxRecords <= 0 || root.objects < maxRecords) && (token = parser.nextToken()) != null) {
+                switch (token) {
+                    case START_OBJECT:
+                        addRecord(parser);
+                        break;
+
+                    case START_ARRAY:
+                        if (inArray) {
+                            parser.skipChildren();
+                        } else {
+                            inArray = true;
+                        }
+                        break;
+
+                    case END_ARRAY:
+                        inArray = false;
+                        break;
+                }
+            }
+        } catch (JsonProcessingException e) {
+            if (root.objects == 0) {
+                throw e;
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("stopped after " + root.objects + " records: " + e.getOriginalMessage());
+            }
+        }
+    }
+
+    private void addRecord(JsonParser parser) throws IOException {
+        presentCounted.clear();
+        nullCounted.clear();
+        objectCounted.clear();
+        try {
+            readObject(parser, root);
+        } catch (JsonProcessingException e) {
+            // reading stops here, so only the counts need undoing, so
+            // that rates stay within the records read
+            for (FieldStats field : presentCounted) {
+                field.present -= 1;
+            }
+            for (FieldStats field : nullCounted) {
+                field.nulls -= 1;
+            }
+            for (FieldStats field : objectCounted) {
+                field.objects -= 1;
+            }
+            throw e;
+        }
+    }
+
+    private void readObject(JsonParser parser, FieldStats node) throws IOException {
+        node.objects += 1;
+        objectCounted.add(node);
+        int object = node.objects;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken t = parser.nextToken();
+            FieldStats field = node.getOrAddField(name, dateParser);
+            if (field.lastObject == object) {
+                // duplicate key; the first value stands
+                parser.skipChildren();
+                continue;
+            }
+            field.lastObject = object;
+            readValue(parser, t, field);
+        }
+    }
+
+    private void readValue(JsonParser parser, JsonToken t, FieldStats field) throws IOException {
+        field.present += 1;
+        presentCounted.add(field);
+        switch (t) {
+            case START_OBJECT:
+                field.add(ValueTypes.OBJECT);
+                readObject(parser, field);
+                break;
+
+            case START_ARRAY:
+                field.add(ValueTypes.ARRAY);
+                FieldStats element = field.getOrAddElement(dateParser);
+                JsonToken e;
+                while ((e = parser.nextToken()) != JsonToken.END_ARRAY && e != null) {
+                    readValue(parser, e, element);
+                }
+                break;
+
+            case VALUE_NUMBER_FLOAT:
+                field.add(ValueTypes.NUMERIC);
+                field.addLength(parser.getTextLength());
+                break;
+
+            case VALUE_NUMBER_INT:
+                field.add(ValueTypes.INTEGER);
+                field.addLength(parser.getTextLength());
+                break;
+
+            case VALUE_FALSE:
+            case VALUE_TRUE:
+                field.add(ValueTypes.BOOLEAN);
+                break;
+
+            case VALUE_STRING:
+                String value = parser.getText();
+                if (value.trim().isEmpty()) {
+                    field.nulls += 1;
+                    nullCounted.add(field);
+                    break;
+                }
+                ParsedDate dt = dateParser.parse(value, field.dateStats);
+                if (dt != null) {
+                    field.add(ValueTypes.DATE);
+                    field.dateFormat = dt.getFormat();
+                } else {
+                    field.add(ValueTypes.STRING);
+                }
+                field.addLength(value.length());
+                break;
+
+            default:
+                // VALUE_NULL
+                field.nulls += 1;
+                nullCounted.add(field);
+        }
+    }
+
+    /**
+     * Merges the schema inferred by other, e.g. from a later range of the
+     * same file, into this one. Merging is associative, so partial schemas
+     * may be combined in any grouping, but not commutative: the fields of
+     * this schema come first, and the later date format is kept.
+     *
+     * @param other (JsonSchemaInferencer)
+     */
+    void merge(JsonSchemaInferencer other) {
+        root.merge(other.root, dateParser);
+    }
+
+    /**
+     * @return (int) number of records read
+     */
+    int getRecords() {
+        return root.objects;
+    }
+
+    /**
+     * @return (List) top-level fields in the order first seen
+     */
+    List<FieldStats> getFields() {
+        return root.getFields();
+    }
+
+    static class FieldStats {
+
+        private final String name;
+        private final DateParser.FormatStats dateStats;
+        private ValueTypes type;
+        private String dateFormat;
+        private int maxLength;
+        private int present;
+        private int nulls;
+
+        // the number of the last object of the parent in which the field was seen
+        private int lastObject;
+
+        // if an object, the number of objects, and their fields in the order first seen
+        private int objects;
+        private Map<String, FieldStats> fields;
+
+        // if an array, its elements merged
+        private FieldStats element;
+
+        FieldStats(String name, DateParser.FormatStats dateStats) {
+            this.name = name;
+            this.dateStats = dateStats;
+            this.type = ValueTypes.NONE;
+        }
+
+        private void add(ValueTypes t) {
+            if (type == ValueTypes.NONE || type == t) {
+                type = t;
+            } else if ((type == ValueTypes.INTEGER && t == ValueTypes.NUMERIC) ||
+                    (type == ValueTypes.NUMERIC && t == ValueTypes.INTEGER)) {
+                type = ValueTypes.NUMERIC;
+            } else {
+                type = ValueTypes.STRING;
+            }
+        }
+
+        private void addLength(int length) {
+            if (length > maxLength) {
+                maxLength = length;
+            }
+        }
+
+        private void merge(FieldStats other, DateParser dateParser) {
+            ValueTypes otherType = other.type;
+            if (otherType != ValueTypes.NONE) {
+                add(otherType);
+            }
+            if (other.dateFormat != null) {
+                dateFormat = other.dateFormat;
+            }
+            addLength(other.maxLength);
+            present += other.present;
+            nulls += other.nulls;
+            objects += other.objects;
+            if (other.fields != null) {
+                for (FieldStats otherField : other.fields.values()) {
+                    getOrAddField(otherField.name, dateParser).merge(otherField, dateParser);
+                }
+            }
+            if (other.element != null) {
+                getOrAddElement(dateParser).merge(other.element, dateParser);
+            }
+        }
+
+        private FieldStats getOrAddField(String name, DateParser dateParser) {
+            if (fields == null) {
+                fields = new LinkedHashMap<>();
+            }
+            FieldStats field = fields.get(name);
+            if (field == null) {
+                field = new FieldStats(name, dateParser.newStats());
+                fields.put(name, field);
+            }
+            return field;
+        }
+
+        private FieldStats getOrAddElement(DateParser dateParser) {
+            if (element == null) {
+                element = new FieldStats(null, dateParser.newStats());
+            }
+            return element;
+        }
+
+        /**
+         * @return (String) null for an array element
+         */
+        String getName() {
+            return name;
+        }
+
+        /**
+         * @return (ValueTypes) NONE if the field was only ever null
+         */
+        ValueTypes getType() {
+            return type;
+        }
+
+        /**
+         * @return (String) the latest date format matched, if the type is DATE
+         */
+        String getDateFormat() {
+            return type == ValueTypes.DATE ? dateFormat : null;
+        }
+
+        int getMaxLength() {
+            return maxLength;
+        }
+
+        /**
+         * @return (int) number of values seen, including nulls
+         */
+        int getPresent() {
+            return present;
+        }
+
+        /**
+         * @return (int) number of objects seen, if an OBJECT
+         */
+        int getObjects() {
+            return objects;
+        }
+
+        /**
+         * @return (List) fields of an OBJECT in the order first seen,
+         *         skipping any only seen in a record cut short
+         */
+        List<FieldStats> getFields() {
+            List<FieldStats> list = new ArrayList<>();
+            if (fields != null) {
+                for (FieldStats field : fields.values()) {
+                    if (field.present > 0) {
+                        list.add(field);
+                    }
+                }
+            }
+            return list;
+        }
+
+        /**
+         * @return (FieldStats) merged elements of an ARRAY, or null if
+         *         every array seen was empty
+         */
+        FieldStats getElement() {
+            return (element == null || element.present == 0) ? null : element;
+        }
+
+        /**
+         * @param count (int) number of values the field could have had,
+         *              e.g. the number of objects of its parent
+         * @return (double) fraction in which the field is null or empty
+         */
+        double getNullRate(int count) {
+            return count == 0 ? 0 : (double) nulls / count;
+        }
+
+        /**
+         * @param count (int) number of values the field could have had
+         * @return (double) fraction in which the field is absent
+         */
+        double getAbsentRate(int count) {
+            return count == 0 ? 0 : (double) (count - present) / count;
+        }
+    }
+}
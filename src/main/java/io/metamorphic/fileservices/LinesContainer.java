@@ -1,15 +1,68 @@
 package io.metamorphic.fileservices;
 
 /**
+ * The line ending inferred for a file, and the lines of the sample window
+ * it was inferred from.
+ *
+ * Lines are held as offsets into the data, and only materialised as
+ * strings when asked for.
+ *
  * Created by markmo on 11/07/2015.
  */
 public class LinesContainer {
 
-    public String[] lines;
     public String lineEnding;
 
-    public LinesContainer(String[] lines, String lineEnding) {
-        this.lines = lines;
+    private final String data;
+
+    // start and end offsets of each line, in pairs
+    private final int[] bounds;
+
+    private final int size;
+
+    public LinesContainer(String data, int[] bounds, int size, String lineEnding) {
+        this.data = data;
+        this.bounds = bounds;
+        this.size = size;
         this.lineEnding = lineEnding;
     }
+
+    /**
+     * @return (int) number of lines in the sample window
+     */
+    public int size() {
+        return size;
+    }
+
+    public int start(int i) {
+        return bounds[2 * i];
+    }
+
+    public int end(int i) {
+        return bounds[2 * i + 1];
+    }
+
+    public int length(int i) {
+        return bounds[2 * i + 1] - bounds[2 * i];
+    }
+
+    public String get(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("line " + i + " of " + size);
+        }
+        return data.substring(bounds[2 * i], bounds[2 * i + 1]);
+    }
+
+    /**
+     * Materialises every line in the sample window.
+     *
+     * @return (String[])
+     */
+    public String[] getLines() {
+        String[] lines = new String[size];
+        for (int i = 0; i < size; i++) {
+            lines[i] = get(i);
+        }
+        return lines;
+    }
 }
@@ -0,0 +1,236 @@
+package io.metamorphic.fileservices;
+
+import java.util.Arrays;
+
+/**
+ * Counts the character n-grams (2 to 5 characters) on each line, and the
+ * meta-frequency of those counts across lines, e.g. '"||" occurred 3 times
+ * on 10 lines, 4 times on 1 line'.
+ *
+ * An n-gram is packed into a key as it is extended one character at a time:
+ * the first four characters are shifted into a long, and the fifth (if any)
+ * and the length into an int. The key is exact, so no substrings are created
+ * and no collision check against the text is needed. All tables are
+ * open-addressed primitive arrays which are reused from line to line.
+ */
+class NGramCounter {
+
+    static final int MIN_LENGTH = 2;
+
+    static final int MAX_LENGTH = 5;
+
+    private static final int NGRAMS_PER_CHAR = MAX_LENGTH - MIN_LENGTH + 1;
+
+    // n-grams of the current line; lineCounts[slot] == 0 marks an empty slot
+    private long[] lineHi = new long[64];
+    private int[] lineLo = new int[64];
+    private int[] lineCounts = new int[64];
+    private int[] lineUsed = new int[64];
+    private int lineSize;
+
+    // distinct n-grams (that repeat on some line) across all lines;
+    // gramSlots holds id + 1, or 0 for an empty slot
+    private int[] gramSlots = new int[64];
+    private long[] gramHi = new long[32];
+    private int[] gramLo = new int[32];
+    private int numGrams;
+
+    // meta-frequency keyed by (id, count); metaLines[slot] == 0 marks an empty slot
+    private long[] metaKeys = new long[64];
+    private int[] metaLines = new int[64];
+    private int metaSize;
+
+    void addLine(String line) {
+        int n = line.length();
+        ensureLineCapacity(n * NGRAMS_PER_CHAR);
+        for (int i = 0; i + MIN_LENGTH <= n; i++) {
+            long hi = 0;
+            for (int w = 1; w <= MAX_LENGTH && i + w <= n; w++) {
+                char c = line.charAt(i + w - 1);
+                int lo;
+                if (w < MAX_LENGTH) {
+                    hi = (hi << 16) | c;
+                    lo = w << 16;
+                } else {
+                    lo = (w << 16) | c;
+                }
+                if (w >= MIN_LENGTH) {
+                    incrementLine(hi, lo);
+                }
+            }
+        }
+        for (int k = 0; k < lineSize; k++) {
+            int slot = lineUsed[k];
+            int count = lineCounts[slot];
+            if (count > 1) {
+                incrementMeta(gramId(lineHi[slot], lineLo[slot]), count);
+            }
+            lineCounts[slot] = 0;
+        }
+        lineSize = 0;
+    }
+
+    /**
+     * @return (int) number of distinct n-grams that occurred more than once
+     *         on at least one line. Ids run from 0 to size() - 1.
+     */
+    int size() {
+        return numGrams;
+    }
+
+    int length(int id) {
+        return gramLo[id] >>> 16;
+    }
+
+    String gram(int id) {
+        int len = length(id);
+        char[] chars = new char[len];
+        int k = Math.min(len, MAX_LENGTH - 1);
+        long hi = gramHi[id];
+        for (int i = k - 1; i >= 0; i--) {
+            chars[i] = (char) hi;
+            hi >>>= 16;
+        }
+        if (len == MAX_LENGTH) {
+            chars[MAX_LENGTH - 1] = (char) gramLo[id];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Computes, for each n-gram, the mode of its meta-frequency (the
+     * /expected/ count per line), and the number of lines meeting that mode
+     * less the number of lines that don't.
+     *
+     * @param modeFreq (int[]) receives the modal count per line, by id
+     * @param modeScore (int[]) receives the score, by id
+     */
+    void modes(int[] modeFreq, int[] modeScore) {
+        int[] sumLines = new int[numGrams];
+        int[] bestLines = new int[numGrams];
+        Arrays.fill(modeFreq, 0, numGrams, 0);
+        for (int slot = 0; slot < metaKeys.length; slot++) {
+            int lines = metaLines[slot];
+            if (lines > 0) {
+                int id = (int) (metaKeys[slot] >>> 32);
+                int count = (int) metaKeys[slot];
+                sumLines[id] += lines;
+                if (lines > bestLines[id] || (lines == bestLines[id] && count < modeFreq[id])) {
+                    bestLines[id] = lines;
+                    modeFreq[id] = count;
+                }
+            }
+        }
+        for (int id = 0; id < numGrams; id++) {
+            modeScore[id] = bestLines[id] - (sumLines[id] - bestLines[id]);
+        }
+    }
+
+    private void ensureLineCapacity(int maxEntries) {
+        int capacity = lineCounts.length;
+        while (capacity < maxEntries * 2) {
+            capacity <<= 1;
+        }
+        if (capacity > lineCounts.length) {
+            lineHi = new long[capacity];
+            lineLo = new int[capacity];
+            lineCounts = new int[capacity];
+            lineUsed = new int[capacity];
+        }
+    }
+
+    private void incrementLine(long hi, int lo) {
+        int mask = lineCounts.length - 1;
+        int slot = hash(hi, lo) & mask;
+        while (lineCounts[slot] != 0) {
+            if (lineHi[slot] == hi && lineLo[slot] == lo) {
+                lineCounts[slot] += 1;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        lineHi[slot] = hi;
+        lineLo[slot] = lo;
+        lineCounts[slot] = 1;
+        lineUsed[lineSize++] = slot;
+    }
+
+    private int gramId(long hi, int lo) {
+        int mask = gramSlots.length - 1;
+        int slot = hash(hi, lo) & mask;
+        while (gramSlots[slot] != 0) {
+            int id = gramSlots[slot] - 1;
+            if (gramHi[id] == hi && gramLo[id] == lo) {
+                return id;
+            }
+            slot = (slot + 1) & mask;
+        }
+        int id = numGrams++;
+        if (id == gramHi.length) {
+            gramHi = Arrays.copyOf(gramHi, id * 2);
+            gramLo = Arrays.copyOf(gramLo, id * 2);
+        }
+        gramHi[id] = hi;
+        gramLo[id] = lo;
+        gramSlots[slot] = id + 1;
+        if (numGrams * 2 > gramSlots.length) {
+            rehashGrams();
+        }
+        return id;
+    }
+
+    private void rehashGrams() {
+        int[] slots = new int[gramSlots.length * 2];
+        int mask = slots.length - 1;
+        for (int id = 0; id < numGrams; id++) {
+            int slot = hash(gramHi[id], gramLo[id]) & mask;
+            while (slots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            slots[slot] = id + 1;
+        }
+        gramSlots = slots;
+    }
+
+    private void incrementMeta(int id, int count) {
+        long key = ((long) id << 32) | count;
+        int mask = metaKeys.length - 1;
+        int slot = hash(key, 0) & mask;
+        while (metaLines[slot] != 0) {
+            if (metaKeys[slot] == key) {
+                metaLines[slot] += 1;
+                return;
+            }
+            slot = (slot + 1) & mask;
+        }
+        metaKeys[slot] = key;
+        metaLines[slot] = 1;
+        metaSize += 1;
+        if (metaSize * 2 > metaKeys.length) {
+            rehashMeta();
+        }
+    }
+
+    private void rehashMeta() {
+        long[] keys = new long[metaKeys.length * 2];
+        int[] lines = new int[keys.length];
+        int mask = keys.length - 1;
+        for (int i = 0; i < metaKeys.length; i++) {
+            if (metaLines[i] != 0) {
+                int slot = hash(metaKeys[i], 0) & mask;
+                while (lines[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = metaKeys[i];
+                lines[slot] = metaLines[i];
+            }
+        }
+        metaKeys = keys;
+        metaLines = lines;
+    }
+
+    private static int hash(long hi, int lo) {
+        long h = (hi ^ ((long) lo << 7)) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
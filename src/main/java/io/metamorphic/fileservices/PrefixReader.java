@@ -0,0 +1,118 @@
+package io.metamorphic.fileservices;
+
+import org.apache.commons.io.input.BOMInputStream;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * Reads a bounded, growable prefix of a stream so that only the bytes
+ * needed for sniffing are ever held in memory.
+ *
+ * Bytes already read are retained, so growing the window only reads the
+ * additional bytes required.
+ */
+class PrefixReader {
+
+    private final InputStream in;
+    private byte[] buf;
+    private int len;
+    private boolean eof;
+
+    PrefixReader(InputStream in) throws IOException {
+        // Detect the annoying Byte Order Mark (BOM) at the beginning of files saved from
+        // Microsoft documents such as Excel
+        this.in = new BOMInputStream(in, false);
+        this.buf = new byte[0];
+        this.len = 0;
+        this.eof = false;
+    }
+
+    /**
+     * Reads until at least window bytes are held, or the end of the stream
+     * is reached.
+     *
+     * @param window (int) number of bytes wanted
+     */
+    void fill(int window) throws IOException {
+        if (buf.length < window) {
+            buf = Arrays.copyOf(buf, window);
+        }
+        while (!eof && len < window) {
+            int read = in.read(buf, len, window - len);
+            if (read == -1) {
+                eof = true;
+            } else {
+                len += read;
+            }
+        }
+    }
+
+    boolean isEof() {
+        return eof;
+    }
+
+    int length() {
+        return len;
+    }
+
+    /**
+     * Counts record terminators in the bytes read so far. A CR LF pair
+     * counts once.
+     *
+     * @return (int) number of line terminators
+     */
+    int countLines() {
+        int count = 0;
+        for (int i = 0; i < len; i++) {
+            byte b = buf[i];
+            if (b == '\n') {
+                count += 1;
+            } else if (b == '\r' && (i + 1 == len || buf[i + 1] != '\n')) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Decodes the bytes read so far. Unless the whole stream has been read,
+     * the trailing partial line is dropped so that a multi-byte character or
+     * a row is never cut in half.
+     *
+     * @param charset (Charset)
+     * @return (String) decoded prefix
+     */
+    String decode(Charset charset) {
+        int end = len;
+        if (!eof) {
+            while (end > 0 && buf[end - 1] != '\n' && buf[end - 1] != '\r') {
+                end -= 1;
+            }
+            if (end == 0) {
+                end = len;
+            }
+        }
+        return new String(buf, 0, end, charset);
+    }
+
+    /**
+     * @return (FormatDetector.Format) format of the stream, detected from
+     *         the bytes read so far
+     */
+    FormatDetector.Format detectFormat() {
+        return FormatDetector.detect(buf, len);
+    }
+
+    /**
+     * @return (InputStream) the bytes read so far followed by the rest of
+     *         the stream, for a caller that must read past the window
+     */
+    InputStream stream() {
+        return new SequenceInputStream(new ByteArrayInputStream(buf, 0, len), in);
+    }
+}
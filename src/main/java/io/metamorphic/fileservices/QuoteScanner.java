@@ -0,0 +1,229 @@
+package io.metamorphic.fileservices;
+
+/**
+ * Linear state machine used by guessQuoteAndDelimiter.
+ *
+ * Walks the sample once per quote character, and for every quoted field
+ * found, votes for the
+ * quote character and for the delimiter seen around it:
+ *
+ *   ,'some text',     quote and delimiter (same delimiter both sides)
+ *   'some text',      quote and delimiter (at the start of a line)
+ *   ,'some text'      quote and delimiter (at the end of a line)
+ *   'some text'       quote only (a whole line)
+ *
+ * A delimiter is a run of up to four characters which are not word
+ * characters, quotes, spaces or part of the line ending, optionally followed
+ * by a single space (which votes for skipInitialSpace). A single space on its
+ * own is taken as the delimiter. Two consecutive quotes inside a quoted field
+ * vote for doubleQuoted.
+ *
+ * Each character is visited a bounded number of times, so the scan is O(n)
+ * with no backtracking, however the quotes are balanced.
+ */
+class QuoteScanner {
+
+    private static final char[] QUOTES = new char[] { '"', '\'' };
+
+    private static final int MAX_DELIMITER_LENGTH = 4;
+
+    // distinct delimiter candidates tallied; later candidates are ignored
+    private static final int MAX_CANDIDATES = 64;
+
+    private final String data;
+    private final String lineEnding;
+    private final int n;
+
+    private final int[] quoteVotes = new int[QUOTES.length];
+    private final int[] doubleQuoteVotes = new int[QUOTES.length];
+
+    // delimiter candidates, packed 16 bits per character
+    private final long[] delimKeys = new long[MAX_CANDIDATES];
+    private final int[] delimLengths = new int[MAX_CANDIDATES];
+    private final int[] delimVotes = new int[MAX_CANDIDATES];
+    private final int[] spaceVotes = new int[MAX_CANDIDATES];
+    private int numDelims;
+
+    QuoteScanner(String data, String lineEnding) {
+        this.data = data;
+        this.lineEnding = lineEnding;
+        this.n = data.length();
+    }
+
+    FileParameters scan() {
+        for (int q = 0; q < QUOTES.length; q++) {
+            scan(q);
+        }
+        return toFileParameters();
+    }
+
+    /**
+     * Each quote character is scanned separately, so that a stray apostrophe
+     * cannot hide a double quoted field, and vice versa.
+     */
+    private void scan(int q) {
+        char quote = QUOTES[q];
+        int pos = data.indexOf(quote);
+        while (pos != -1) {
+
+            // what precedes the opening quote?
+            int openEnd = pos;
+            boolean openSpace = false;
+            if (openEnd > 0 && data.charAt(openEnd - 1) == ' ') {
+                openSpace = true;
+                openEnd -= 1;
+            }
+            int openStart = openEnd;
+            while (openStart > 0 && openEnd - openStart <= MAX_DELIMITER_LENGTH &&
+                    isDelimiterChar(data.charAt(openStart - 1))) {
+                openStart -= 1;
+            }
+            int openLength = openEnd - openStart;
+            if (openLength == 0 && openSpace && !isLineStart(openStart)) {
+                // space delimited
+                openLength = 1;
+                openEnd += 1;
+                openSpace = false;
+            }
+            if (openLength > MAX_DELIMITER_LENGTH || (openLength == 0 && !isLineStart(openStart))) {
+                // not at the start of a field, e.g. an apostrophe in a word
+                pos = data.indexOf(quote, pos + 1);
+                continue;
+            }
+
+            // find the closing quote, i.e. the first quote (other than a doubled
+            // quote) followed by a delimiter or the end of the line, as a lazy
+            // '.*?' would. The search never revisits a character, since the scan
+            // resumes after the closing quote, or stops if there is none.
+            int doubled = 0;
+            int close = -1;
+            int closeLength = 0;
+            boolean closeSpace = false;
+            int j = data.indexOf(quote, pos + 1);
+            while (j != -1) {
+                if (j + 1 < n && data.charAt(j + 1) == quote) {
+                    doubled += 1;
+                    j = data.indexOf(quote, j + 2);
+                    continue;
+                }
+                int closeEnd = j + 1;
+                while (closeEnd < n && closeEnd - j <= MAX_DELIMITER_LENGTH &&
+                        isDelimiterChar(data.charAt(closeEnd))) {
+                    closeEnd += 1;
+                }
+                closeLength = closeEnd - j - 1;
+                closeSpace = closeEnd < n && data.charAt(closeEnd) == ' ';
+                if (closeLength == 0 && closeSpace) {
+                    // space delimited
+                    closeLength = 1;
+                    closeSpace = false;
+                }
+                if ((closeLength > 0 && closeLength <= MAX_DELIMITER_LENGTH) ||
+                        (closeLength == 0 && isLineEnd(j + 1))) {
+                    close = j;
+                    break;
+                }
+                j = data.indexOf(quote, j + 1);
+            }
+            if (close == -1) {
+                return;
+            }
+
+            quoteVotes[q] += 1;
+            doubleQuoteVotes[q] += doubled;
+            int closeStart = close + 1;
+            if (openLength > 0 && closeLength > 0) {
+                if (openLength == closeLength && data.regionMatches(openStart, data, closeStart, openLength)) {
+                    vote(openStart, openLength, openSpace);
+                }
+            } else if (openLength > 0) {
+                vote(openStart, openLength, openSpace);
+            } else if (closeLength > 0) {
+                vote(closeStart, closeLength, closeSpace);
+            }
+
+            pos = data.indexOf(quote, closeStart);
+        }
+    }
+
+    private FileParameters toFileParameters() {
+        int bestQuote = -1;
+        for (int q = 0; q < QUOTES.length; q++) {
+            if (quoteVotes[q] > 0 && (bestQuote == -1 || quoteVotes[q] > quoteVotes[bestQuote])) {
+                bestQuote = q;
+            }
+        }
+        if (bestQuote == -1) {
+            return new FileParameters();
+        }
+        String textQualifier = String.valueOf(QUOTES[bestQuote]);
+        String columnDelimiter = "";
+        boolean skipInitialSpace = false;
+        int bestDelim = -1;
+        for (int d = 0; d < numDelims; d++) {
+            if (bestDelim == -1 || delimVotes[d] > delimVotes[bestDelim]) {
+                bestDelim = d;
+            }
+        }
+        if (bestDelim != -1) {
+            columnDelimiter = unpack(delimKeys[bestDelim], delimLengths[bestDelim]);
+            skipInitialSpace = (delimVotes[bestDelim] == spaceVotes[bestDelim]);
+        }
+        boolean doubleQuoted = doubleQuoteVotes[bestQuote] > 0;
+        FileParameters params = new FileParameters(textQualifier, doubleQuoted, columnDelimiter, skipInitialSpace);
+        params.setQuoteVotes(quoteVotes[bestQuote]);
+        params.setDelimiterVotes(bestDelim == -1 ? 0 : delimVotes[bestDelim]);
+        return params;
+    }
+
+    private void vote(int start, int length, boolean space) {
+        long key = 0;
+        for (int i = start; i < start + length; i++) {
+            key = (key << 16) | data.charAt(i);
+        }
+        for (int d = 0; d < numDelims; d++) {
+            if (delimKeys[d] == key && delimLengths[d] == length) {
+                delimVotes[d] += 1;
+                if (space) spaceVotes[d] += 1;
+                return;
+            }
+        }
+        if (numDelims < MAX_CANDIDATES) {
+            delimKeys[numDelims] = key;
+            delimLengths[numDelims] = length;
+            delimVotes[numDelims] = 1;
+            spaceVotes[numDelims] = space ? 1 : 0;
+            numDelims += 1;
+        }
+    }
+
+    private static String unpack(long key, int length) {
+        char[] chars = new char[length];
+        for (int i = length - 1; i >= 0; i--) {
+            chars[i] = (char) key;
+            key >>>= 16;
+        }
+        return new String(chars);
+    }
+
+    private boolean isDelimiterChar(char c) {
+        return !(c == '_' || (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ||
+                c == ' ' || c == '\n' || c == '\r' || quoteIndex(c) != -1 || lineEnding.indexOf(c) != -1);
+    }
+
+    private boolean isLineStart(int i) {
+        return i == 0 || data.charAt(i - 1) == '\n' || data.charAt(i - 1) == '\r' ||
+                (i >= lineEnding.length() && data.startsWith(lineEnding, i - lineEnding.length()));
+    }
+
+    private boolean isLineEnd(int i) {
+        return i == n || data.charAt(i) == '\n' || data.charAt(i) == '\r' || data.startsWith(lineEnding, i);
+    }
+
+    private static int quoteIndex(char c) {
+        for (int q = 0; q < QUOTES.length; q++) {
+            if (QUOTES[q] == c) return q;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,94 @@
+package io.metamorphic.fileservices;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits data into records on a line ending, ignoring line endings inside
+ * quoted fields, such as the CR LF that Excel writes into multi-line cells.
+ *
+ * A quote only opens a quoted field at the start of a field, i.e. at the
+ * start of a record or after a character that is not a letter, digit or
+ * quote, so that a stray quote in a value (12" pipe) does not swallow the
+ * rest of the file. Inside a quoted field, a doubled quote is an escaped
+ * quote.
+ */
+class RecordSplitter {
+
+    static final char DEFAULT_QUOTE = '"';
+
+    private final char quote;
+    private boolean inQuote;
+
+    RecordSplitter(char quote) {
+        this.quote = quote;
+        this.inQuote = false;
+    }
+
+    char getQuote() {
+        return quote;
+    }
+
+    boolean isInQuote() {
+        return inQuote;
+    }
+
+    /**
+     * Updates the quote state for the quote character at i.
+     *
+     * @param data (String)
+     * @param i (int) index of a quote character
+     * @return (int) index of the last character consumed, i.e. i + 1 for an
+     *         escaped (doubled) quote, otherwise i
+     */
+    int quote(String data, int i) {
+        if (inQuote) {
+            if (i + 1 < data.length() && data.charAt(i + 1) == quote) {
+                return i + 1;
+            }
+            inQuote = false;
+        } else if (isFieldStart(data, i)) {
+            inQuote = true;
+        }
+        return i;
+    }
+
+    private boolean isFieldStart(String data, int i) {
+        if (i == 0) return true;
+        char prev = data.charAt(i - 1);
+        return prev == '\n' || prev == '\r' || !(Character.isLetterOrDigit(prev) || prev == quote);
+    }
+
+    /**
+     * Splits data into records. As with String.split, trailing empty
+     * records are dropped.
+     *
+     * @param data (String)
+     * @param lineEnding (String) record terminator
+     * @param quote (char) text qualifier
+     * @return (String[]) records
+     */
+    static String[] split(String data, String lineEnding, char quote) {
+        RecordSplitter splitter = new RecordSplitter(quote);
+        List<String> records = new ArrayList<>();
+        char first = lineEnding.charAt(0);
+        int n = data.length();
+        int start = 0;
+        for (int i = 0; i < n; i++) {
+            char c = data.charAt(i);
+            if (c == quote) {
+                i = splitter.quote(data, i);
+            } else if (c == first && !splitter.inQuote && data.startsWith(lineEnding, i)) {
+                records.add(data.substring(start, i));
+                start = i + lineEnding.length();
+                i = start - 1;
+            }
+        }
+        records.add(data.substring(start));
+        int size = records.size();
+        while (size > 1 && records.get(size - 1).isEmpty()) {
+            size -= 1;
+        }
+        return records.subList(0, size).toArray(new String[size]);
+    }
+}
@@ -0,0 +1,134 @@
+package io.metamorphic.fileservices;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups the lines of a multi-record file by record type, in one pass.
+ *
+ * In a multi-record file, e.g. a billing feed of header, detail and
+ * trailer records, every line starts with a short record-type code,
+ * followed by the delimiter used throughout the file:
+ *
+ *   H,20150101,BILLRUN42
+ *   D,1001,SMITH,49.95,20150103
+ *   T,1
+ *
+ * The file is only taken to be multi-record if every line has such a
+ * code, there are between two and MAX_RECORD_TYPES codes, the lines of
+ * each type all have the same number of fields, at least one type
+ * recurs, and at least two types differ in their number of fields. The
+ * last tests keep an ordinary file, whose first column happens to be a
+ * short code or a small id, delimited.
+ */
+class RecordTypeClusterer {
+
+    static final int MAX_CODE_LENGTH = 8;
+
+    static final int MAX_RECORD_TYPES = 16;
+
+    private RecordTypeClusterer() {}
+
+    /**
+     * @param data (String)
+     * @param lines (LinesContainer) lines of data
+     * @param quote (char) text qualifier
+     * @param maxLinesPerType (int) lines kept of each type
+     * @return (RecordTypes) the delimiter, and the lines kept of each type
+     *         in the order first seen, or null if the file is not
+     *         multi-record
+     */
+    static RecordTypes cluster(String data, LinesContainer lines, char quote, int maxLinesPerType) {
+        char delimiter = 0;
+        Map<String, RecordType> types = new LinkedHashMap<>();
+        for (int i = 0; i < lines.size(); i++) {
+            int start = lines.start(i);
+            int end = lines.end(i);
+            if (start == end) continue;
+            int p = start;
+            while (p < end && p - start < MAX_CODE_LENGTH && Character.isLetterOrDigit(data.charAt(p))) {
+                p += 1;
+            }
+            if (p == start || p == end) {
+                return null;
+            }
+            char d = data.charAt(p);
+            if (delimiter == 0) {
+                if (Character.isLetterOrDigit(d) || d == ' ' || d == quote) {
+                    return null;
+                }
+                delimiter = d;
+            } else if (d != delimiter) {
+                return null;
+            }
+            String code = data.substring(start, p);
+            RecordType type = types.get(code);
+            if (type == null) {
+                if (types.size() == MAX_RECORD_TYPES) {
+                    return null;
+                }
+                type = new RecordType(code);
+                types.put(code, type);
+            }
+            String line = data.substring(start, end);
+            int fields = ReservoirSampler.countFields(line, String.valueOf(delimiter), quote);
+            if (type.count == 0) {
+                type.fields = fields;
+            } else if (type.fields != fields) {
+                return null;
+            }
+            type.count += 1;
+            if (type.lines.size() < maxLinesPerType) {
+                type.lines.add(line);
+            }
+        }
+        if (types.size() < 2) {
+            return null;
+        }
+        int fields = -1;
+        boolean differ = false;
+        boolean recurs = false;
+        for (RecordType type : types.values()) {
+            if (fields != -1 && type.fields != fields) {
+                differ = true;
+            }
+            fields = type.fields;
+            recurs |= type.count > 1;
+        }
+        if (!differ || !recurs) {
+            return null;
+        }
+        return new RecordTypes(String.valueOf(delimiter), new ArrayList<>(types.values()));
+    }
+
+    static class RecordTypes {
+
+        final String delimiter;
+
+        // in the order first seen
+        final List<RecordType> types;
+
+        RecordTypes(String delimiter, List<RecordType> types) {
+            this.delimiter = delimiter;
+            this.types = types;
+        }
+    }
+
+    static class RecordType {
+
+        final String code;
+
+        // lines of this type kept, including the code
+        final List<String> lines = new ArrayList<>();
+
+        // number of lines of this type, and the number of fields in each
+        int count;
+        int fields;
+
+        RecordType(String code) {
+            this.code = code;
+        }
+    }
+}
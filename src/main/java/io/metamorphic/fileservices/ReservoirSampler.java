@@ -0,0 +1,186 @@
+package io.metamorphic.fileservices;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Draws a uniform sample of records from across a file, reading only a
+ * fixed number of small windows at random offsets.
+ *
+ * A window usually starts part way through a record, so it is
+ * re-synchronised: each line ending in the window is tried in turn as a
+ * record boundary, until the record that follows has the expected number
+ * of fields. Quotes are tracked from there on, so a line ending inside a
+ * quoted field is not taken as a boundary. The complete records in the
+ * window are then fed to a reservoir (Algorithm R), so every record read
+ * has the same chance of ending up in the sample.
+ *
+ * Assumes an ASCII compatible charset, in which a line ending found at an
+ * arbitrary byte offset is a real line ending.
+ */
+class ReservoirSampler {
+
+    // line endings tried as a record boundary before giving up on a window
+    private static final int MAX_RESYNC_ATTEMPTS = 8;
+
+    private final String lineEnding;
+    private final String delimiter;
+    private final char quote;
+    private final int expectedFields;
+    private final Random random;
+
+    private final String[] reservoir;
+    private int size;
+    private long seen;
+
+    ReservoirSampler(int sampleSize, String lineEnding, String delimiter, char quote,
+                     int expectedFields, long seed) {
+        this.lineEnding = lineEnding;
+        this.delimiter = delimiter;
+        this.quote = quote;
+        this.expectedFields = expectedFields;
+        this.random = new Random(seed);
+        this.reservoir = new String[sampleSize];
+        this.size = 0;
+        this.seen = 0;
+    }
+
+    void add(String record) {
+        seen += 1;
+        if (size < reservoir.length) {
+            reservoir[size++] = record;
+        } else {
+            long j = (long) (random.nextDouble() * seen);
+            if (j < reservoir.length) {
+                reservoir[(int) j] = record;
+            }
+        }
+    }
+
+    /**
+     * @return (String[]) the records sampled
+     */
+    String[] getSample() {
+        return Arrays.copyOf(reservoir, size);
+    }
+
+    /**
+     * @return (long) number of records offered to the reservoir
+     */
+    long getSeen() {
+        return seen;
+    }
+
+    /**
+     * Reads probes windows at random offsets between start and the end of
+     * the file, and feeds the complete records found in each to the
+     * reservoir. Offsets are visited in order, and a window never overlaps
+     * the one before, so no record is read twice.
+     *
+     * @param channel (FileChannel) file
+     * @param start (long) offset of the first byte not already sampled
+     * @param probes (int) number of windows
+     * @param window (int) window size in bytes
+     * @param charset (Charset)
+     */
+    void probe(FileChannel channel, long start, int probes, int window, Charset charset) throws IOException {
+        long fileSize = channel.size();
+        if (start >= fileSize || probes <= 0) return;
+        long[] offsets = new long[probes];
+        for (int i = 0; i < probes; i++) {
+            offsets[i] = start + (long) (random.nextDouble() * (fileSize - start));
+        }
+        Arrays.sort(offsets);
+        ByteBuffer buf = ByteBuffer.allocate(window);
+        long readTo = start;
+        for (long offset : offsets) {
+            offset = Math.max(offset, readTo);
+            if (offset >= fileSize) break;
+            buf.clear();
+            while (buf.hasRemaining()) {
+                if (channel.read(buf, offset + buf.position()) == -1) break;
+            }
+            int n = buf.position();
+            readTo = offset + n;
+            addWindow(new String(buf.array(), 0, n, charset), readTo >= fileSize);
+        }
+    }
+
+    private void addWindow(String text, boolean eof) {
+        int pos = text.indexOf(lineEnding);
+        for (int attempt = 0; pos != -1 && attempt < MAX_RESYNC_ATTEMPTS; attempt++) {
+            int start = pos + lineEnding.length();
+            if (addRecords(text, start, eof)) return;
+            pos = text.indexOf(lineEnding, start);
+        }
+    }
+
+    /**
+     * Adds the complete records from start, if the first has the expected
+     * number of fields.
+     *
+     * @return (boolean) true if start was accepted as a record boundary
+     */
+    private boolean addRecords(String text, int start, boolean eof) {
+        RecordSplitter splitter = new RecordSplitter(quote);
+        char end = lineEnding.charAt(0);
+        char delim = delimiter.charAt(0);
+        int n = text.length();
+        int recordStart = start;
+        int fields = 1;
+        boolean synced = false;
+        for (int i = start; i < n; i++) {
+            char c = text.charAt(i);
+            if (c == quote) {
+                i = splitter.quote(text, i);
+            } else if (splitter.isInQuote()) {
+                // skip
+            } else if (c == delim && text.startsWith(delimiter, i)) {
+                fields += 1;
+                i += delimiter.length() - 1;
+            } else if (c == end && text.startsWith(lineEnding, i)) {
+                if (!synced) {
+                    if (fields != expectedFields) return false;
+                    synced = true;
+                }
+                if (i > recordStart) {
+                    add(text.substring(recordStart, i));
+                }
+                recordStart = i + lineEnding.length();
+                i = recordStart - 1;
+                fields = 1;
+            }
+        }
+        if (eof && recordStart < n && !splitter.isInQuote()) {
+            if (!synced && fields != expectedFields) return false;
+            add(text.substring(recordStart));
+            synced = true;
+        }
+        return synced;
+    }
+
+    /**
+     * @param record (String)
+     * @param delimiter (String) column delimiter
+     * @param quote (char) text qualifier
+     * @return (int) number of fields in record, ignoring delimiters inside quotes
+     */
+    static int countFields(String record, String delimiter, char quote) {
+        RecordSplitter splitter = new RecordSplitter(quote);
+        int fields = 1;
+        for (int i = 0; i < record.length(); i++) {
+            char c = record.charAt(i);
+            if (c == quote) {
+                i = splitter.quote(record, i);
+            } else if (!splitter.isInQuote() && record.startsWith(delimiter, i)) {
+                fields += 1;
+                i += delimiter.length() - 1;
+            }
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,15 @@
+package io.metamorphic.fileservices;
+
+/**
+ * Where the rows used for type inference are taken from.
+ *
+ * HEAD takes the first rows of the file.
+ *
+ * RESERVOIR draws rows at random from across the whole file, by reading
+ * small windows at random offsets. Only available when extracting from a
+ * Path.
+ */
+public enum SamplingMode {
+    HEAD,
+    RESERVOIR
+}
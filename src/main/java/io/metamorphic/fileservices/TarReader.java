@@ -0,0 +1,181 @@
+package io.metamorphic.fileservices;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads the entries of a tar archive from a stream, one at a time, without
+ * buffering more than a header block.
+ *
+ * Only what is needed to find and read a file entry is supported: the
+ * name and size from the ustar header. Extended headers (GNU long names,
+ * pax) are treated as entries that are not files, and skipped.
+ */
+class TarReader {
+
+    private static final int BLOCK_SIZE = 512;
+
+    private final InputStream in;
+    private final byte[] header = new byte[BLOCK_SIZE];
+
+    private String name;
+    private long size;
+    private boolean file;
+
+    // bytes of the current entry, including padding, not yet read
+    private long remaining;
+
+    TarReader(InputStream in) {
+        this.in = in;
+    }
+
+    /**
+     * Skips the rest of the current entry, and reads the next header.
+     *
+     * @return (boolean) false at the end of the archive
+     */
+    boolean next() throws IOException {
+        skipFully(remaining);
+        remaining = 0;
+        if (!readBlock()) {
+            return false;
+        }
+        if (isZeros(header)) {
+            // two zero blocks end the archive
+            return false;
+        }
+        name = readString(0, 100);
+        String prefix = readString(345, 155);
+        if (!prefix.isEmpty()) {
+            name = prefix + "/" + name;
+        }
+        size = readOctal(124, 12);
+        byte type = header[156];
+        file = type == '0' || type == 0;
+        remaining = (size + BLOCK_SIZE - 1) / BLOCK_SIZE * BLOCK_SIZE;
+        return true;
+    }
+
+    String getName() {
+        return name;
+    }
+
+    long getSize() {
+        return size;
+    }
+
+    /**
+     * @return (boolean) true for a regular file
+     */
+    boolean isFile() {
+        return file;
+    }
+
+    /**
+     * The stream is only valid until the next call to next, and closing
+     * it does not close the archive.
+     *
+     * @return (InputStream) the contents of the current entry
+     */
+    InputStream getInputStream() {
+        return new InputStream() {
+
+            private long left = size;
+
+            @Override
+            public int read() throws IOException {
+                if (left <= 0) return -1;
+                int b = in.read();
+                if (b != -1) {
+                    left -= 1;
+                    remaining -= 1;
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (left <= 0) return -1;
+                int n = in.read(b, off, (int) Math.min(len, left));
+                if (n > 0) {
+                    left -= n;
+                    remaining -= n;
+                }
+                return n;
+            }
+        };
+    }
+
+    private boolean readBlock() throws IOException {
+        int len = 0;
+        while (len < BLOCK_SIZE) {
+            int n = in.read(header, len, BLOCK_SIZE - len);
+            if (n == -1) {
+                if (len == 0) return false;
+                throw new EOFException("Truncated tar header");
+            }
+            len += n;
+        }
+        return true;
+    }
+
+    private void skipFully(long n) throws IOException {
+        while (n > 0) {
+            long skipped = in.skip(n);
+            if (skipped <= 0) {
+                if (in.read() == -1) {
+                    throw new EOFException("Truncated tar entry");
+                }
+                skipped = 1;
+            }
+            n -= skipped;
+        }
+    }
+
+    private String readString(int offset, int length) {
+        int end = offset;
+        while (end < offset + length && header[end] != 0) {
+            end += 1;
+        }
+        return new String(header, offset, end - offset, StandardCharsets.UTF_8);
+    }
+
+    private long readOctal(int offset, int length) throws IOException {
+        long value = 0;
+        for (int i = offset; i < offset + length; i++) {
+            byte b = header[i];
+            if (b == 0 || b == ' ') {
+                if (value > 0) break;
+                continue;
+            }
+            if (b < '0' || b > '7') {
+                throw new IOException("Invalid tar header");
+            }
+            value = (value << 3) + (b - '0');
+        }
+        return value;
+    }
+
+    private static boolean isZeros(byte[] block) {
+        for (byte b : block) {
+            if (b != 0) return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param buf (byte[]) start of a file
+     * @param len (int) number of bytes of buf filled
+     * @return (boolean) true if buf starts with a ustar header
+     */
+    static boolean isTar(byte[] buf, int len) {
+        byte[] magic = "ustar".getBytes(StandardCharsets.US_ASCII);
+        if (len < 257 + magic.length) return false;
+        for (int i = 0; i < magic.length; i++) {
+            if (buf[257 + i] != magic[i]) return false;
+        }
+        return true;
+    }
+}
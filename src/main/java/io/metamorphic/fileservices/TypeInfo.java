@@ -1,13 +1,27 @@
 package io.metamorphic.fileservices;
 
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Created by markmo on 18/05/15.
  */
 public class TypeInfo {
 
+    private static final Map<ValueTypes, TypeInfo> shared = new EnumMap<>(ValueTypes.class);
+
+    private static final ConcurrentMap<String, TypeInfo> sharedDates = new ConcurrentHashMap<>();
+
+    static {
+        for (ValueTypes type : ValueTypes.values()) {
+            shared.put(type, new TypeInfo(type, Collections.<String, Object>emptyMap()));
+        }
+    }
+
     private ValueTypes type;
     private Map<String, Object> info;
 
@@ -23,6 +37,43 @@ public class TypeInfo {
         }
     }
 
+    private TypeInfo(ValueTypes type, Map<String, Object> info) {
+        this.type = type;
+        this.info = info;
+    }
+
+    /**
+     * Returns a shared instance for the type, so that classifying a value
+     * allocates nothing. Shared instances are immutable; setValue throws
+     * UnsupportedOperationException.
+     *
+     * @param type (ValueTypes)
+     * @return (TypeInfo)
+     */
+    public static TypeInfo of(ValueTypes type) {
+        return shared.get(type);
+    }
+
+    /**
+     * Returns a shared, immutable DATE instance with the given "format".
+     *
+     * @param format (String) date format pattern
+     * @return (TypeInfo)
+     */
+    public static TypeInfo ofDate(String format) {
+        TypeInfo typeInfo = sharedDates.get(format);
+        if (typeInfo == null) {
+            Map<String, Object> info = new HashMap<>();
+            info.put("format", format);
+            typeInfo = new TypeInfo(ValueTypes.DATE, Collections.unmodifiableMap(info));
+            TypeInfo existing = sharedDates.putIfAbsent(format, typeInfo);
+            if (existing != null) {
+                typeInfo = existing;
+            }
+        }
+        return typeInfo;
+    }
+
     public ValueTypes getType() {
         return type;
     }
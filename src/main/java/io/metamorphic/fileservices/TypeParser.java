@@ -1,14 +1,14 @@
 package io.metamorphic.fileservices;
 
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Created by markmo on 4/07/2015.
  */
 public class TypeParser {
 
-    private Map<Class<?>, ITypeParser<?>> registry = new HashMap<>();
+    private Map<Class<?>, ITypeParser<?>> registry = new ConcurrentHashMap<>();
 
     public <T> void registerTypeParser(Class<T> key, ITypeParser<T> typeParser) {
         registry.put(key, typeParser);
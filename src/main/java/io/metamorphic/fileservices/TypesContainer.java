@@ -1,5 +1,7 @@
 package io.metamorphic.fileservices;
 
+import io.metamorphic.models.ColumnProfile;
+
 /**
  * Created by markmo on 11/07/2015.
  */
@@ -9,9 +11,17 @@ public class TypesContainer {
     public DataTypes[] sqlTypes;
     public int[] lengths;
 
+    // statistics of the sampled values of each column, if captured
+    public ColumnProfile[] profiles;
+
     public TypesContainer(TypeInfo[] types, DataTypes[] sqlTypes, int[] lengths) {
         this.types = types;
         this.sqlTypes = sqlTypes;
         this.lengths = lengths;
     }
+
+    public TypesContainer(TypeInfo[] types, DataTypes[] sqlTypes, int[] lengths, ColumnProfile[] profiles) {
+        this(types, sqlTypes, lengths);
+        this.profiles = profiles;
+    }
 }
@@ -0,0 +1,106 @@
+package io.metamorphic.fileservices;
+
+import java.util.List;
+
+/**
+ * The outcome of checking every record of a file against the schema
+ * inferred from a sample of it.
+ *
+ * A record is malformed if it does not have one field per column. Each
+ * field of a well-formed record is checked against the type of its
+ * column; an empty value fits any type. At most MAX_SAMPLE_LINES line
+ * numbers, the first in the file, are kept of each kind of violation.
+ */
+public class ValidationResult {
+
+    public static final int MAX_SAMPLE_LINES = 10;
+
+    private long numRecords;
+    private long numMalformed;
+    private List<Long> malformedLines;
+    private List<ColumnViolations> columns;
+
+    ValidationResult(long numRecords, long numMalformed, List<Long> malformedLines,
+                     List<ColumnViolations> columns) {
+        this.numRecords = numRecords;
+        this.numMalformed = numMalformed;
+        this.malformedLines = malformedLines;
+        this.columns = columns;
+    }
+
+    /**
+     * @return (long) number of records, not counting a header or blank lines
+     */
+    public long getNumRecords() {
+        return numRecords;
+    }
+
+    /**
+     * @return (long) number of records with the wrong number of fields
+     */
+    public long getNumMalformed() {
+        return numMalformed;
+    }
+
+    public List<Long> getMalformedLines() {
+        return malformedLines;
+    }
+
+    /**
+     * @return (List) violations of each column, in column order
+     */
+    public List<ColumnViolations> getColumns() {
+        return columns;
+    }
+
+    /**
+     * @return (boolean) true if every record fits the schema
+     */
+    public boolean isValid() {
+        if (numMalformed > 0) return false;
+        for (ColumnViolations column : columns) {
+            if (column.getCount() > 0) return false;
+        }
+        return true;
+    }
+
+    public static class ColumnViolations {
+
+        private String name;
+        private String type;
+        private long count;
+        private List<Long> lines;
+
+        ColumnViolations(String name, String type, long count, List<Long> lines) {
+            this.name = name;
+            this.type = type;
+            this.count = count;
+            this.lines = lines;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return (String) the inferred type, e.g. INTEGER
+         */
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return (long) number of values that do not fit the type
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return (List) line numbers of the first values that do not fit
+         */
+        public List<Long> getLines() {
+            return lines;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package io.metamorphic.fileservices;
+
+import com.github.javafaker.Faker;
+import io.metamorphic.models.ColumnInfo;
+import io.metamorphic.models.ColumnProfile;
+
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Date;
+import java.util.Random;
+
+import static io.metamorphic.commons.utils.ArrayUtils.memberOf;
+import static io.metamorphic.fileservices.FileServiceImpl.*;
+
+/**
+ * Resolves the generator for a column, either from its SQL type and, for
+ * string columns, its name, or from the profile of a sampled column.
+ */
+class ValueGenerators {
+
+    private static final DateTimeFormatter DATE_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd").withZone(ZoneOffset.UTC);
+
+    private static final DateTimeFormatter DATETIME_FORMATTER =
+            DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneOffset.UTC);
+
+    // generated dates fall in a fixed range, not one relative to now, so
+    // that a seeded Faker gives the same dates on any day, in any zone
+    private static final Date MIN_DATE = Date.from(Instant.parse("2010-01-01T00:00:00Z"));
+    private static final Date MAX_DATE = Date.from(Instant.parse("2020-01-01T00:00:00Z"));
+
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz";
+
+    // letters and digits drawn per random number, as 26^6 and 10^9 fit an int
+    private static final int LETTERS_PER_DRAW = 6;
+    private static final int DIGITS_PER_DRAW = 9;
+
+    private ValueGenerators() {}
+
+    /**
+     * @param columnName (String) lower case
+     * @param columnType (String) SQL type name, e.g. VARCHAR
+     * @return (IValueGenerator)
+     */
+    static IValueGenerator forColumn(String columnName, String columnType) {
+        if (memberOf(INT_TYPES, columnType)) {
+            return faker -> String.valueOf(nextInt(faker, 1000));
+        } else if (memberOf(FLOAT_TYPES, columnType)) {
+            return faker -> String.valueOf(faker.number().randomDouble(2, 0, 1000));
+        } else if (memberOf(DATE_TYPES, columnType)) {
+            DateTimeFormatter formatter = "DATE".equals(columnType) ? DATE_FORMATTER : DATETIME_FORMATTER;
+            return faker -> formatter.format(faker.date().between(MIN_DATE, MAX_DATE).toInstant());
+        } else if (columnName.endsWith("id")) {
+            return faker -> faker.crypto().md5();
+        } else if (memberOf(FIRST_NAMES, columnName)) {
+            return faker -> faker.name().firstName();
+        } else if (memberOf(LAST_NAMES, columnName)) {
+            return faker -> faker.name().lastName();
+        } else if (memberOf(FULL_NAMES, columnName)) {
+            return faker -> faker.name().fullName();
+        } else if (columnName.contains("email")) {
+            return faker -> faker.internet().emailAddress();
+        } else if (columnName.contains("url")) {
+            return faker -> faker.internet().url();
+        } else if (memberOf(IP_ADDRESS, columnName)) {
+            return faker -> faker.internet().ipV4Address();
+        } else {
+            return faker -> faker.lorem().characters(5, 10);
+        }
+    }
+
+    /**
+     * Generates values like those sampled: empty as often, of the same
+     * type, with lengths drawn from the same distribution, and, for a
+     * column whose values repeat, drawn from a set of as many distinct
+     * values as were seen.
+     *
+     * The set of values of a repeating column is built from poolSeed, so
+     * it is the same for every partition generated with the same seed.
+     *
+     * @param column (ColumnInfo) an inferred column
+     * @param poolSeed (long) seeds the values of a repeating column
+     * @return (IValueGenerator)
+     */
+    static IValueGenerator forProfile(ColumnInfo column, long poolSeed) {
+        ColumnProfile profile = column.getProfile();
+        if (profile == null) {
+            return forColumn(column.getName().toLowerCase(), column.getSqlType());
+        }
+        int count = profile.getCount();
+        int nulls = profile.getNulls();
+        if (count == 0 || nulls == count) {
+            return faker -> "";
+        }
+        IValueGenerator values = forType(column.getType(), profile);
+        int cardinality = profile.getCardinality();
+
+        // a column whose values repeat, on average, at least twice
+        if (!profile.isUnique() && cardinality > 0 && cardinality * 2 <= count - nulls) {
+            Faker poolFaker = new Faker(new Random(poolSeed));
+            String[] pool = new String[cardinality];
+            for (int i = 0; i < cardinality; i++) {
+                pool[i] = values.generate(poolFaker);
+            }
+            values = faker -> pool[nextInt(faker, pool.length)];
+        }
+        if (nulls == 0) {
+            return values;
+        }
+        IValueGenerator nonNulls = values;
+        return faker -> nextInt(faker, count) < nulls ? "" : nonNulls.generate(faker);
+    }
+
+    private static IValueGenerator forType(String type, ColumnProfile profile) {
+        if (ValueTypes.BOOLEAN.name().equals(type)) {
+            return faker -> nextInt(faker, 2) == 0 ? "false" : "true";
+        } else if (ValueTypes.BIT.name().equals(type)) {
+            return faker -> nextInt(faker, 2) == 0 ? "0" : "1";
+        } else if (ValueTypes.DATE.name().equals(type)) {
+            String format = profile.getDateFormat();
+            DateTimeFormatter formatter = (format == null) ? DATE_FORMATTER :
+                    DateParser.getFormatter(format).withZone(ZoneOffset.UTC);
+            return faker -> formatter.format(faker.date().between(MIN_DATE, MAX_DATE).toInstant());
+        }
+        int[] cumulative = cumulative(profile.getLengthCounts());
+        if (ValueTypes.INTEGER.name().equals(type)) {
+            return faker -> {
+                int length = Math.max(1, drawLength(faker, cumulative));
+                StringBuilder sb = new StringBuilder(length);
+                if (length > 1) {
+                    sb.append((char) ('1' + nextInt(faker, 9)));
+                }
+                appendDigits(faker, sb, length - sb.length());
+                return sb.toString();
+            };
+        } else if (ValueTypes.NUMERIC.name().equals(type)) {
+            // two decimal places, as for DDL types
+            return faker -> {
+                int intDigits = Math.max(1, drawLength(faker, cumulative) - 3);
+                StringBuilder sb = new StringBuilder(intDigits + 3);
+                if (intDigits > 1) {
+                    sb.append((char) ('1' + nextInt(faker, 9)));
+                }
+                appendDigits(faker, sb, intDigits - sb.length());
+                sb.append('.');
+                appendDigits(faker, sb, 2);
+                return sb.toString();
+            };
+        } else {
+            return faker -> {
+                int length = drawLength(faker, cumulative);
+                StringBuilder sb = new StringBuilder(length);
+                while (sb.length() < length) {
+                    int n = Math.min(LETTERS_PER_DRAW, length - sb.length());
+                    int r = nextInt(faker, pow(LETTERS.length(), n));
+                    for (int i = 0; i < n; i++) {
+                        sb.append(LETTERS.charAt(r % LETTERS.length()));
+                        r /= LETTERS.length();
+                    }
+                }
+                return sb.toString();
+            };
+        }
+    }
+
+    private static void appendDigits(Faker faker, StringBuilder sb, int numDigits) {
+        while (numDigits > 0) {
+            int n = Math.min(DIGITS_PER_DRAW, numDigits);
+            int r = nextInt(faker, pow(10, n));
+            for (int i = 0; i < n; i++) {
+                sb.append((char) ('0' + r % 10));
+                r /= 10;
+            }
+            numDigits -= n;
+        }
+    }
+
+    /**
+     * @param counts (int[]) number of values of each length
+     * @return (int[]) number of values of each length or shorter
+     */
+    private static int[] cumulative(int[] counts) {
+        int[] cumulative = new int[counts.length];
+        int total = 0;
+        for (int n = 0; n < counts.length; n++) {
+            total += counts[n];
+            cumulative[n] = total;
+        }
+        return cumulative;
+    }
+
+    private static int drawLength(Faker faker, int[] cumulative) {
+        int total = cumulative.length == 0 ? 0 : cumulative[cumulative.length - 1];
+        if (total == 0) {
+            return 0;
+        }
+        int r = nextInt(faker, total);
+        int lo = 0;
+        int hi = cumulative.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (cumulative[mid] > r) {
+                hi = mid;
+            } else {
+                lo = mid + 1;
+            }
+        }
+        return lo;
+    }
+
+    /**
+     * Draws uniformly from [0, n), unlike Faker's numberBetween, which
+     * picks one of about sqrt(n) buckets and then a point within it, so
+     * favours some values over others.
+     *
+     * @param faker (Faker) source of all randomness
+     * @param n (int) positive bound
+     * @return (int)
+     */
+    static int nextInt(Faker faker, int n) {
+        // a uniform draw over 10^18 values, whose remainder mod n is
+        // biased by no more than n in 10^18
+        return (int) (faker.number().randomNumber(18, false) % n);
+    }
+
+    private static int pow(int base, int exponent) {
+        int value = 1;
+        for (int i = 0; i < exponent; i++) {
+            value *= base;
+        }
+        return value;
+    }
+}
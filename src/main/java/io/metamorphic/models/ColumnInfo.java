@@ -1,5 +1,7 @@
 package io.metamorphic.models;
 
+import java.util.List;
+
 /**
  * @author Mark Moloney <markmo @ metamorphic.io>
  * Copyright 2015
@@ -12,6 +14,18 @@ public class ColumnInfo {
     private String sqlType;
     private int length;
 
+    // fraction of sampled records in which the value is null or empty, and
+    // in which the column is absent (e.g. an optional JSON field)
+    private double nullRate;
+    private double absentRate;
+
+    // the fields of a STRUCT, and the type of the elements of an ARRAY
+    private List<ColumnInfo> fields;
+    private ColumnInfo elementType;
+
+    // statistics of the sampled values, if captured
+    private ColumnProfile profile;
+
     public ColumnInfo(String name, int columnIndex, String type, String sqlType, int length) {
         this.name = name;
         this.columnIndex = columnIndex;
@@ -59,4 +73,44 @@ public class ColumnInfo {
     public void setLength(int length) {
         this.length = length;
     }
+
+    public double getNullRate() {
+        return nullRate;
+    }
+
+    public void setNullRate(double nullRate) {
+        this.nullRate = nullRate;
+    }
+
+    public double getAbsentRate() {
+        return absentRate;
+    }
+
+    public void setAbsentRate(double absentRate) {
+        this.absentRate = absentRate;
+    }
+
+    public List<ColumnInfo> getFields() {
+        return fields;
+    }
+
+    public void setFields(List<ColumnInfo> fields) {
+        this.fields = fields;
+    }
+
+    public ColumnInfo getElementType() {
+        return elementType;
+    }
+
+    public void setElementType(ColumnInfo elementType) {
+        this.elementType = elementType;
+    }
+
+    public ColumnProfile getProfile() {
+        return profile;
+    }
+
+    public void setProfile(ColumnProfile profile) {
+        this.profile = profile;
+    }
 }
@@ -0,0 +1,126 @@
+package io.metamorphic.models;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Statistics of the values of a column in a sample, enough to generate
+ * data that resembles it without copying any of its values.
+ *
+ * lengthCounts[n] is the number of non-null values of length n. Values
+ * longer than MAX_TRACKED_LENGTH are counted at MAX_TRACKED_LENGTH.
+ *
+ * cardinality is the number of distinct non-null values, counted up to
+ * MAX_TRACKED_DISTINCT; beyond that the column is taken to be unique.
+ *
+ * dateFormat is the format of a DATE column, e.g. dd/MM/yyyy.
+ */
+public class ColumnProfile {
+
+    public static final int MAX_TRACKED_LENGTH = 1024;
+
+    public static final int MAX_TRACKED_DISTINCT = 10000;
+
+    private int count;
+    private int nulls;
+    private int[] lengthCounts = new int[16];
+    private int maxLength;
+    private int cardinality;
+    private boolean unique;
+    private String dateFormat;
+
+    // distinct values seen; dropped when profiling is finished
+    private transient Set<String> distinct = new HashSet<>();
+
+    /**
+     * @param value (String) a sampled value; null or blank counts as null
+     */
+    public void add(String value) {
+        count += 1;
+        if (value == null || value.trim().isEmpty()) {
+            nulls += 1;
+            return;
+        }
+        int length = Math.min(value.length(), MAX_TRACKED_LENGTH);
+        if (length >= lengthCounts.length) {
+            lengthCounts = Arrays.copyOf(lengthCounts, Math.max(length + 1, lengthCounts.length * 2));
+        }
+        lengthCounts[length] += 1;
+        maxLength = Math.max(maxLength, length);
+        if (distinct != null) {
+            distinct.add(value);
+            if (distinct.size() > MAX_TRACKED_DISTINCT) {
+                distinct = null;
+                unique = true;
+            }
+        }
+    }
+
+    /**
+     * Drops the values held to count cardinality.
+     */
+    public void finish() {
+        if (distinct != null) {
+            cardinality = distinct.size();
+            distinct = null;
+        }
+        lengthCounts = Arrays.copyOf(lengthCounts, maxLength + 1);
+    }
+
+    /**
+     * @return (int) number of values sampled, including nulls
+     */
+    public int getCount() {
+        return count;
+    }
+
+    public void setCount(int count) {
+        this.count = count;
+    }
+
+    public int getNulls() {
+        return nulls;
+    }
+
+    public void setNulls(int nulls) {
+        this.nulls = nulls;
+    }
+
+    public int[] getLengthCounts() {
+        return lengthCounts;
+    }
+
+    public void setLengthCounts(int[] lengthCounts) {
+        this.lengthCounts = lengthCounts;
+        this.maxLength = lengthCounts.length - 1;
+    }
+
+    public int getCardinality() {
+        return cardinality;
+    }
+
+    public void setCardinality(int cardinality) {
+        this.cardinality = cardinality;
+    }
+
+    /**
+     * @return (boolean) true if the values seen were too many to count,
+     *         or all different
+     */
+    public boolean isUnique() {
+        return unique || cardinality == count - nulls;
+    }
+
+    public void setUnique(boolean unique) {
+        this.unique = unique;
+    }
+
+    public String getDateFormat() {
+        return dateFormat;
+    }
+
+    public void setDateFormat(String dateFormat) {
+        this.dateFormat = dateFormat;
+    }
+}
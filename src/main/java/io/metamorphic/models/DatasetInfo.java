@@ -20,8 +20,10 @@ public class DatasetInfo {
     private String dataSourceName;
     private String name;
     private String fileType;
+    private String compressionType;
     private FileParameters fileParameters;
     private List<ColumnInfo> columns;
+    private FileDataset fileDataset;
     private String error;
 
     public DatasetInfo() {}
@@ -62,6 +64,14 @@ public class DatasetInfo {
         this.fileType = fileType;
     }
 
+    public String getCompressionType() {
+        return compressionType;
+    }
+
+    public void setCompressionType(String compressionType) {
+        this.compressionType = compressionType;
+    }
+
     public FileParameters getFileParameters() {
         return fileParameters;
     }
@@ -136,6 +146,18 @@ public class DatasetInfo {
         return sb.toString();
     }
 
+    /**
+     * @return (FileDataset) for a MULTIRECORD file, the columns of each
+     *         record type; otherwise null
+     */
+    public FileDataset getFileDataset() {
+        return fileDataset;
+    }
+
+    public void setFileDataset(FileDataset fileDataset) {
+        this.fileDataset = fileDataset;
+    }
+
     public String toFileProperties() {
         StringBuilder sb = new StringBuilder();
         String schemaName = Naming.underscoreFormat(dataSourceName);
@@ -178,7 +200,19 @@ public class DatasetInfo {
         sb.append("writeMode=append\n");
         sb.append("fileBasedTagColumns=src_date\n");
         sb.append("recordDelimiter=").append(fileParameters.getLineTerminator()).append("\n");
-        sb.append("fieldDelimiter=").append(fileParameters.getColumnDelimiter()).append("\n");
+        if (fileParameters.getColumnWidths() != null) {
+            sb.append("fieldWidths=");
+            int[] widths = fileParameters.getColumnWidths();
+            for (int i = 0; i < widths.length; i++) {
+                if (i > 0) {
+                    sb.append(",");
+                }
+                sb.append(widths[i]);
+            }
+            sb.append("\n");
+        } else {
+            sb.append("fieldDelimiter=").append(fileParameters.getColumnDelimiter()).append("\n");
+        }
         sb.append("srcFormats=src_date=yyyyMMdd\n");
         sb.append("fileBasedTagPattern=TODO\n");
         sb.append("targetPartition=src_date\n");
@@ -210,6 +244,44 @@ public class DatasetInfo {
         return sb.toString();
     }
 
+    /**
+     * Nested fields are named as in the source, quoted if need be, so
+     * that they still match the source once Hive lower-cases them. A
+     * STRUCT with no fields seen is read as a STRING.
+     *
+     * @param column (ColumnInfo)
+     * @return (String) e.g. ARRAY<STRUCT<id:INTEGER,tags:ARRAY<STRING>>>
+     */
+    private static String toHiveType(ColumnInfo column) {
+        String dataType = column.getSqlType();
+        if ("STRUCT".equals(dataType) && column.getFields() != null && !column.getFields().isEmpty()) {
+            StringBuilder sb = new StringBuilder("STRUCT<");
+            List<ColumnInfo> fields = column.getFields();
+            for (int i = 0; i < fields.size(); i++) {
+                ColumnInfo field = fields.get(i);
+                if (i > 0) {
+                    sb.append(",");
+                }
+                String name = field.getName();
+                if (name.matches("[A-Za-z_][A-Za-z0-9_]*")) {
+                    sb.append(name);
+                } else {
+                    sb.append('`').append(name.replace("`", "``")).append('`');
+                }
+                sb.append(":").append(toHiveType(field));
+            }
+            return sb.append(">").toString();
+        }
+        if ("ARRAY".equals(dataType)) {
+            ColumnInfo elementType = column.getElementType();
+            return "ARRAY<" + (elementType == null ? "STRING" : toHiveType(elementType)) + ">";
+        }
+        if ("STRUCT".equals(dataType) || memberOf(FileServiceImpl.STRING_TYPES, dataType)) {
+            return "STRING";
+        }
+        return dataType;
+    }
+
     public String toDDL() {
         StringBuilder sb = new StringBuilder();
         String schemaName = Naming.underscoreFormat(dataSourceName);
@@ -244,11 +316,7 @@ public class DatasetInfo {
             sb.append(columnName);
 //            if (dataType.equals("NVARCHAR")) {
 //                sb.append(" NVARCHAR(").append(length).append(")\n");
-            if (memberOf(FileServiceImpl.STRING_TYPES, dataType)) {
-                sb.append(" ").append("STRING\n");
-            } else {
-                sb.append(" ").append(dataType).append("\n");
-            }
+            sb.append(" ").append(toHiveType(column)).append("\n");
         }
         sb.append(")\n");
         sb.append("PARTITIONED BY (\n");
@@ -0,0 +1,230 @@
+package io.metamorphic.fileservices;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static org.junit.Assert.assertEquals;
+
+public class DelimitedSplitterTest {
+
+    // fields that exercise quoted line endings, doubled and escaped quotes,
+    // escaped delimiters, spaces and multi-byte characters
+    private static final String[] FIELDS = new String[] {
+            "abc", "12", "", "\"\"", " sp", "\u00e9\u4e2d", "tail\"q",
+            "\"q,uo\"\"ted\"", "\"multi\nline\"", "\"crlf\r\nin\"", "\"cr\ronly\"",
+            "\"e\\\"sc\"", "x\\,y", "x\\||y", "\"d||l\"", "\"\"\"\""
+    };
+
+    private static final long[] RANGE_SIZES = new long[] { 1, 2, 3, 7, 16, 50, 333 };
+
+    private ExecutorService executor;
+    private Path path;
+
+    @Before
+    public void setUp() throws IOException {
+        executor = Executors.newFixedThreadPool(3);
+        path = Files.createTempFile("splitter", ".csv");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        executor.shutdownNow();
+        Files.deleteIfExists(path);
+    }
+
+    @Test
+    public void testChunksReadLikeWholeFile() throws IOException {
+        Random random = new Random(1);
+        for (String delimiter : new String[] { ",", "||" }) {
+            for (boolean skipInitialSpace : new boolean[] { false, true }) {
+                for (boolean escaped : new boolean[] { false, true }) {
+                    for (int i = 0; i < 15; i++) {
+                        FileParameters fileParameters = new FileParameters("\"", true, delimiter, skipInitialSpace);
+                        if (escaped) {
+                            fileParameters.setEscapeCharacter('\\');
+                        }
+                        write(randomFile(random, delimiter, skipInitialSpace));
+                        assertChunksReadLikeWholeFile(fileParameters);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testCountsRecords() throws IOException {
+        FileParameters fileParameters = new FileParameters("\"", true, ",", false);
+        write("a,b\n\n\"x\ny\",1\r\n\"\"\n\r\n3,\"4\"");
+        for (long rangeSize : RANGE_SIZES) {
+            DelimitedSplitter.Chunks chunks = split(fileParameters, rangeSize);
+            assertEquals(3, chunks.numRecords);
+        }
+    }
+
+    @Test
+    public void testCountsLastRecordWithoutLineEnding() throws IOException {
+        FileParameters fileParameters = new FileParameters("\"", true, ",", false);
+        write("a,b\nc,d");
+        assertEquals(2, split(fileParameters, 1).numRecords);
+        write("a,b\nc,d\n");
+        assertEquals(2, split(fileParameters, 1).numRecords);
+    }
+
+    @Test
+    public void testSkipsByteOrderMark() throws IOException {
+        FileParameters fileParameters = new FileParameters("\"", true, ",", false);
+        write("\uFEFFa,b\n1,2\n");
+        for (long rangeSize : RANGE_SIZES) {
+            DelimitedSplitter.Chunks chunks = split(fileParameters, rangeSize);
+            assertEquals(3, chunks.chunks.get(0).start);
+            assertEquals(2, chunks.numRecords);
+        }
+        assertChunksReadLikeWholeFile(fileParameters);
+    }
+
+    @Test
+    public void testStartsChunksAtRecords() throws IOException {
+        FileParameters fileParameters = new FileParameters("\"", true, ",", false);
+        write("a,\"b\nc\"\nd,e\nf,g\n");
+        DelimitedSplitter.Chunks chunks = split(fileParameters, 1);
+        List<Long> starts = new ArrayList<>();
+        List<Long> lines = new ArrayList<>();
+        for (DelimitedSplitter.Chunk chunk : chunks.chunks) {
+            starts.add(chunk.start);
+            lines.add(chunk.firstLine);
+        }
+        assertEquals(asList(0, 8, 12), starts);
+        assertEquals(asList(1, 3, 4), lines);
+    }
+
+    @Test
+    public void testGetRangeSize() {
+        assertEquals(1L << 20, DelimitedSplitter.getRangeSize(1000, 4));
+        assertEquals(64L << 20, DelimitedSplitter.getRangeSize(1L << 40, 4));
+        assertEquals(10L << 20, DelimitedSplitter.getRangeSize(80L << 20, 2));
+        assertEquals(1L << 20, DelimitedSplitter.getRangeSize(1000, 0));
+    }
+
+    private static String randomFile(Random random, String delimiter, boolean skipInitialSpace) {
+        StringBuilder sb = new StringBuilder();
+        if (random.nextInt(3) == 0) {
+            sb.append('\uFEFF');
+        }
+        int numRecords = 20 + random.nextInt(80);
+        for (int i = 0; i < numRecords; i++) {
+            int numFields = 1 + random.nextInt(5);
+            for (int j = 0; j < numFields; j++) {
+                if (j > 0) {
+                    sb.append(delimiter);
+                }
+                if (skipInitialSpace && random.nextBoolean()) {
+                    sb.append("  ");
+                }
+                sb.append(FIELDS[random.nextInt(FIELDS.length)]);
+            }
+            int lineEnding = random.nextInt(10);
+            sb.append(lineEnding == 0 ? "\r\n" : lineEnding == 1 ? "\r" : lineEnding == 2 ? "\n\n" : "\n");
+        }
+        if (random.nextBoolean()) {
+            sb.setLength(sb.length() - 1);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Tokenizes each chunk on its own, at each range size, and checks that
+     * the records, their line numbers and the count are those of a pass
+     * over the whole file.
+     */
+    private void assertChunksReadLikeWholeFile(FileParameters fileParameters) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer whole = read(channel, 0, channel.size());
+            if (whole.remaining() >= 3 && whole.get(0) == (byte) 0xEF) {
+                whole.position(3);
+            }
+            List<String> expected = records(whole, fileParameters, 1);
+            for (long rangeSize : RANGE_SIZES) {
+                DelimitedSplitter.Chunks chunks =
+                        new DelimitedSplitter(fileParameters).split(channel, rangeSize, executor);
+                List<String> actual = new ArrayList<>();
+                long end = chunks.chunks.get(0).start;
+                for (DelimitedSplitter.Chunk chunk : chunks.chunks) {
+                    assertEquals("chunks must be contiguous", end, chunk.start);
+                    end = chunk.end;
+                    actual.addAll(records(read(channel, chunk.start, chunk.end), fileParameters, chunk.firstLine));
+                }
+                assertEquals(channel.size(), end);
+                assertEquals("range size " + rangeSize, expected, actual);
+                assertEquals("range size " + rangeSize, expected.size(), chunks.numRecords);
+            }
+        } finally {
+            channel.close();
+        }
+    }
+
+    /**
+     * @return (List<String>) each record, not counting blank lines, as its
+     *         line number and fields
+     */
+    private static List<String> records(ByteBuffer buf, FileParameters fileParameters, long firstLine) {
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer(fileParameters);
+        tokenizer.reset(buf, firstLine);
+        List<String> records = new ArrayList<>();
+        while (tokenizer.next()) {
+            if (tokenizer.size() == 1 && tokenizer.isEmpty(0)) {
+                continue;
+            }
+            StringBuilder sb = new StringBuilder().append(tokenizer.getLineNumber()).append(':');
+            for (int j = 0; j < tokenizer.size(); j++) {
+                sb.append('[').append(tokenizer.get(j)).append(']');
+            }
+            records.add(sb.toString());
+        }
+        return records;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long start, long end) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((int) (end - start));
+        while (buf.hasRemaining() && channel.read(buf, start + buf.position()) > 0) {
+            // read the whole region
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private DelimitedSplitter.Chunks split(FileParameters fileParameters, long rangeSize) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new DelimitedSplitter(fileParameters).split(channel, rangeSize, executor);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void write(String data) throws IOException {
+        Files.write(path, data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<Long> asList(long... values) {
+        List<Long> list = new ArrayList<>(values.length);
+        for (long value : values) {
+            list.add(value);
+        }
+        return list;
+    }
+}
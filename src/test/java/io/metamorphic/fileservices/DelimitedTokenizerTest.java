@@ -0,0 +1,163 @@
+package io.metamorphic.fileservices;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DelimitedTokenizerTest {
+
+    private static FileParameters csv() {
+        return new FileParameters("\"", true, ",", false);
+    }
+
+    /**
+     * @return (List<String>) each record as its line number and fields,
+     *         e.g. 1:[a, b]
+     */
+    static List<String> tokenize(String data, FileParameters fileParameters) {
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer(fileParameters);
+        tokenizer.reset(ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8)));
+        List<String> records = new ArrayList<>();
+        while (tokenizer.next()) {
+            String[] fields = new String[tokenizer.size()];
+            for (int j = 0; j < fields.length; j++) {
+                fields[j] = tokenizer.get(j);
+            }
+            records.add(tokenizer.getLineNumber() + ":" + Arrays.toString(fields));
+        }
+        return records;
+    }
+
+    @Test
+    public void testSplitsRecordsAndFields() {
+        assertEquals(Arrays.asList("1:[a, b, c]", "2:[1, 2, 3]"), tokenize("a,b,c\n1,2,3\n", csv()));
+    }
+
+    @Test
+    public void testReadsEveryLineEnding() {
+        assertEquals(Arrays.asList("1:[a, b]", "2:[c, d]", "3:[e, f]", "4:[g]"),
+                tokenize("a,b\r\nc,d\re,f\ng", csv()));
+    }
+
+    @Test
+    public void testKeepsEmptyFields() {
+        assertEquals(Arrays.asList("1:[a, b, ]", "2:[, , ]"), tokenize("a,b,\n,,", csv()));
+    }
+
+    @Test
+    public void testReadsBlankLinesAsOneEmptyField() {
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer(csv());
+        tokenizer.reset(ByteBuffer.wrap("\n\"\"\na".getBytes(StandardCharsets.UTF_8)));
+        for (int i = 0; i < 2; i++) {
+            assertTrue(tokenizer.next());
+            assertEquals(1, tokenizer.size());
+            assertTrue(tokenizer.isEmpty(0));
+        }
+        assertTrue(tokenizer.next());
+        assertEquals("a", tokenizer.get(0));
+        assertEquals(3, tokenizer.getLineNumber());
+        assertFalse(tokenizer.next());
+    }
+
+    @Test
+    public void testReadsLineEndingsInQuotedFields() {
+        assertEquals(Arrays.asList("1:[multi\nline, 2]", "3:[cr\r\nlf, 3]", "5:[cr\ronly, 4]", "7:[5, 6]"),
+                tokenize("\"multi\nline\",2\n\"cr\r\nlf\",3\r\n\"cr\ronly\",4\r5,6", csv()));
+    }
+
+    @Test
+    public void testReadsDelimitersInQuotedFields() {
+        assertEquals(Arrays.asList("1:[x,y, z]"), tokenize("\"x,y\",z", csv()));
+    }
+
+    @Test
+    public void testReadsDoubledQuotes() {
+        assertEquals(Arrays.asList("1:[he said \"hi\", 2]", "2:[, \"]"),
+                tokenize("\"he said \"\"hi\"\"\",2\n\"\",\"\"\"\"", csv()));
+    }
+
+    @Test
+    public void testReadsDoubledQuotesWhenNotDetected() {
+        FileParameters fileParameters = new FileParameters("\"", false, ",", false);
+        assertEquals(Arrays.asList("1:[a\"b, c]"), tokenize("\"a\"\"b\",c", fileParameters));
+    }
+
+    @Test
+    public void testReadsEscapedCharacters() {
+        FileParameters fileParameters = csv();
+        fileParameters.setEscapeCharacter('\\');
+        assertEquals(Arrays.asList("1:[a\"b, c]", "2:[a,b, c]", "3:[a\\b, c]"),
+                tokenize("\"a\\\"b\",c\na\\,b,c\na\\\\b,c", fileParameters));
+    }
+
+    @Test
+    public void testKeepsEscapeBeforeOtherCharacters() {
+        FileParameters fileParameters = csv();
+        fileParameters.setEscapeCharacter('\\');
+        assertEquals(Arrays.asList("1:[C:\\dir\\x, 2]"), tokenize("C:\\dir\\x,2", fileParameters));
+    }
+
+    @Test
+    public void testKeepsTextAfterClosingQuote() {
+        assertEquals(Arrays.asList("1:[qtail, 1]"), tokenize("\"q\"tail,1", csv()));
+    }
+
+    @Test
+    public void testKeepsUnterminatedQuotedField() {
+        assertEquals(Arrays.asList("1:[unterminated,1\n2,3]"), tokenize("\"unterminated,1\n2,3", csv()));
+    }
+
+    @Test
+    public void testReadsMultiCharacterDelimiter() {
+        FileParameters fileParameters = new FileParameters("\"", true, "||", false);
+        assertEquals(Arrays.asList("1:[a, b|c, c||d, ]", "2:[1, 2, 3, |]"),
+                tokenize("a||b|c||\"c||d\"||\n1||2||3|||", fileParameters));
+    }
+
+    @Test
+    public void testSkipsInitialSpace() {
+        FileParameters fileParameters = new FileParameters("\"", true, ",", true);
+        assertEquals(Arrays.asList("1:[a, b, c,d]"), tokenize("a,  b, \"c,d\"", fileParameters));
+        assertEquals(Arrays.asList("1:[a,   b]"), tokenize("a,  b", csv()));
+    }
+
+    @Test
+    public void testIgnoresQuotesWithQuoteNone() {
+        FileParameters fileParameters = csv();
+        fileParameters.setQuoting(FileParameters.QUOTING.QUOTE_NONE);
+        assertEquals(Arrays.asList("1:[\"a, b\", c]"), tokenize("\"a,b\",c", fileParameters));
+    }
+
+    @Test
+    public void testDecodesUtf8() {
+        assertEquals(Arrays.asList("1:[\u00e9, \u00fc, \u4e2d]", "2:[\"\u4e2d\", x]"),
+                tokenize("\u00e9,\"\u00fc\",\u4e2d\n\"\"\"\u4e2d\"\"\",x", csv()));
+    }
+
+    @Test
+    public void testReadsFromBufferPosition() {
+        DelimitedTokenizer tokenizer = new DelimitedTokenizer(csv());
+        ByteBuffer buf = ByteBuffer.wrap("a,b\nc,d\ne,f".getBytes(StandardCharsets.UTF_8));
+        buf.position(4).limit(7);
+        tokenizer.reset(buf, 2);
+        assertTrue(tokenizer.next());
+        assertEquals("c", tokenizer.get(0));
+        assertEquals("d", tokenizer.get(1));
+        assertEquals(2, tokenizer.getLineNumber());
+        assertEquals(7, tokenizer.position());
+        assertFalse(tokenizer.next());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsEmptyDelimiter() {
+        new DelimitedTokenizer(new FileParameters("\"", true, "", false));
+    }
+}
@@ -0,0 +1,125 @@
+package io.metamorphic.fileservices;
+
+import com.github.javafaker.Faker;
+import io.metamorphic.models.ColumnInfo;
+import io.metamorphic.models.ColumnProfile;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ValueGeneratorsTest {
+
+    private static final int NUM_VALUES = 20000;
+
+    // allowed difference between a generated and a profiled proportion
+    private static final double TOLERANCE = 0.02;
+
+    private static ColumnInfo column(String type, ColumnProfile profile) {
+        ColumnInfo column = new ColumnInfo("col", 1, type, "VARCHAR", 0);
+        column.setProfile(profile);
+        return column;
+    }
+
+    private static ColumnProfile profile(int count, int nulls, int[] lengthCounts) {
+        ColumnProfile profile = new ColumnProfile();
+        profile.setCount(count);
+        profile.setNulls(nulls);
+        profile.setLengthCounts(lengthCounts);
+        profile.setUnique(true);
+        return profile;
+    }
+
+    @Test
+    public void testNextIntIsUniform() {
+        Faker faker = new Faker(new Random(1));
+        for (int n : new int[] { 2, 3, 10, 26 * 26 }) {
+            int[] counts = new int[n];
+            int numDraws = 2000 * n;
+            for (int i = 0; i < numDraws; i++) {
+                counts[ValueGenerators.nextInt(faker, n)] += 1;
+            }
+            for (int k = 0; k < n; k++) {
+                assertEquals("n=" + n + ", k=" + k, 2000, counts[k], 2000 * 0.15);
+            }
+        }
+    }
+
+    @Test
+    public void testMatchesNullRateAndLengths() {
+        // a quarter null; of the rest, half of length 3, a third of length 10
+        // and a sixth of length 20
+        int[] lengthCounts = new int[21];
+        lengthCounts[3] = 300;
+        lengthCounts[10] = 200;
+        lengthCounts[20] = 100;
+        ColumnProfile profile = profile(800, 200, lengthCounts);
+        IValueGenerator generator = ValueGenerators.forProfile(column(ValueTypes.STRING.name(), profile), 1);
+
+        Faker faker = new Faker(new Random(1));
+        int nulls = 0;
+        int[] lengths = new int[lengthCounts.length];
+        for (int i = 0; i < NUM_VALUES; i++) {
+            String value = generator.generate(faker);
+            if (value.isEmpty()) {
+                nulls += 1;
+            } else {
+                lengths[value.length()] += 1;
+            }
+        }
+        assertEquals(0.25, (double) nulls / NUM_VALUES, TOLERANCE);
+        int nonNulls = NUM_VALUES - nulls;
+        for (int n = 0; n < lengthCounts.length; n++) {
+            assertEquals("length " + n, lengthCounts[n] / 600.0, (double) lengths[n] / nonNulls, TOLERANCE);
+        }
+    }
+
+    @Test
+    public void testDrawsBitsEvenly() {
+        for (ValueTypes type : new ValueTypes[] { ValueTypes.BIT, ValueTypes.BOOLEAN }) {
+            ColumnProfile profile = profile(10, 0, new int[] { 0, 10 });
+            IValueGenerator generator = ValueGenerators.forProfile(column(type.name(), profile), 1);
+            Faker faker = new Faker(new Random(1));
+            int ones = 0;
+            for (int i = 0; i < NUM_VALUES; i++) {
+                String value = generator.generate(faker);
+                if ("1".equals(value) || "true".equals(value)) {
+                    ones += 1;
+                }
+            }
+            assertEquals(type.name(), 0.5, (double) ones / NUM_VALUES, TOLERANCE);
+        }
+    }
+
+    @Test
+    public void testDrawsEvenlyFromRepeatingValues() {
+        ColumnProfile profile = profile(1000, 0, new int[] { 0, 0, 0, 0, 0, 0, 1000 });
+        profile.setUnique(false);
+        profile.setCardinality(5);
+        IValueGenerator generator = ValueGenerators.forProfile(column(ValueTypes.STRING.name(), profile), 1);
+        Faker faker = new Faker(new Random(1));
+        Map<String, Integer> counts = new HashMap<>();
+        for (int i = 0; i < NUM_VALUES; i++) {
+            counts.merge(generator.generate(faker), 1, Integer::sum);
+        }
+        assertTrue(counts.size() <= 5);
+        for (int count : counts.values()) {
+            assertEquals(1.0 / counts.size(), (double) count / NUM_VALUES, TOLERANCE);
+        }
+    }
+
+    @Test
+    public void testIsSeeded() {
+        ColumnProfile profile = profile(100, 10, new int[] { 0, 0, 0, 0, 0, 90 });
+        IValueGenerator generator = ValueGenerators.forProfile(column(ValueTypes.INTEGER.name(), profile), 1);
+        Faker faker1 = new Faker(new Random(7));
+        Faker faker2 = new Faker(new Random(7));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(generator.generate(faker1), generator.generate(faker2));
+        }
+    }
+}